@@ -0,0 +1,339 @@
+package com.example.completablefuture;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步批量输出，用来替代热点路径上的System.out.println。
+ * <p>
+ * PrintStream的每次写都是synchronized的，请求量大时工作线程会在它上面排队。
+ * 这里生产者只是把一行文本放进一个有界的无锁环形缓冲区(每个槽带序号，CAS领取写入位置)，
+ * 由唯一的消费者线程成批取出、编码成UTF-8，再一次性写入stdout或文件通道。
+ * 不超过约两万个字符(编码后最坏情况下放得进64KB缓冲区)的行总在同一次写出里，不会被拆开。
+ * <p>
+ * 缓冲区满时按OverflowPolicy处理：BLOCK让生产者等待空位，DROP丢弃这一行并计数。
+ * close()会把已经放进缓冲区的内容全部写出；写出失败时消费者线程停止，之后的println和close()之后一样处理。
+ * stdout()返回的共享实例在JVM退出时自动flush。
+ * <p>
+ * 输出是异步的：相对于直接调用System.out的输出，只有在flush()返回之后才保证先后顺序。
+ */
+public class AsyncOutputSink implements AutoCloseable {
+
+    public enum OverflowPolicy {
+        BLOCK, DROP
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final OverflowPolicy overflowPolicy;
+    private final boolean writeThroughWhenClosed;
+    private final int mask;
+    private final AtomicReferenceArray<CharSequence> records;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread consumer;
+    private long head;
+    private volatile boolean parked;
+    private volatile boolean closed;
+
+    public AsyncOutputSink(String name, WritableByteChannel channel, boolean closeChannel, int capacity,
+                           OverflowPolicy overflowPolicy) {
+        this(name, channel, closeChannel, capacity, overflowPolicy, false);
+    }
+
+    private AsyncOutputSink(String name, WritableByteChannel channel, boolean closeChannel, int capacity,
+                            OverflowPolicy overflowPolicy, boolean writeThroughWhenClosed) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        if (size <= 0) {
+            size = 1;
+        }
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.overflowPolicy = overflowPolicy;
+        this.writeThroughWhenClosed = writeThroughWhenClosed;
+        this.mask = size - 1;
+        this.records = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.consumer = new Thread(this::run, name);
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * 进程共享的stdout输出，JVM退出前会把缓冲的内容写完。
+     * <p>
+     * 每次写出对当前的System.out调用一次write，所以System.setOut对它同样有效，
+     * 而且写出的内容在PrintStream的锁里一次写完，不会和其他线程的System.out.println交错。
+     * JVM退出时关闭之后(例如其他shutdown hook或守护线程还在打印)，println退化为同步的System.out.println。
+     */
+    public static AsyncOutputSink stdout() {
+        return Stdout.INSTANCE;
+    }
+
+    private static final class Stdout {
+        static final AsyncOutputSink INSTANCE = new AsyncOutputSink("async-stdout",
+                new SystemOutChannel(), false, 64 * 1024, OverflowPolicy.BLOCK, true);
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    INSTANCE.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "async-stdout-shutdown"));
+        }
+    }
+
+    /**
+     * 把每次write的全部内容复制到一个数组里，对当前的System.out只调用一次write。
+     * 只由消费者线程使用。
+     */
+    private static final class SystemOutChannel implements WritableByteChannel {
+        private byte[] bytes = new byte[BUFFER_SIZE];
+
+        @Override
+        public int write(ByteBuffer src) {
+            int len = src.remaining();
+            if (bytes.length < len) {
+                bytes = new byte[len];
+            }
+            src.get(bytes, 0, len);
+            PrintStream out = System.out;
+            out.write(bytes, 0, len);
+            out.flush();
+            return len;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            System.out.flush();
+        }
+    }
+
+    /**
+     * 放入一行文本；DROP策略下缓冲区已满时返回false
+     */
+    public boolean println(Object line) {
+        CharSequence record = String.valueOf(line);
+        if (closed) {
+            return rejectClosed(record);
+        }
+        for (;;) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long seq = sequences.get(index);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    records.set(index, record);
+                    sequences.set(index, pos + 1);
+                    if (parked) {
+                        LockSupport.unpark(consumer);
+                    }
+                    if (closed) {
+                        return reclaim(index, pos, record);
+                    }
+                    return true;
+                }
+            } else if (seq < pos) {
+                // 缓冲区已满
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                if (closed) {
+                    return rejectClosed(record);
+                }
+                if (parked) {
+                    LockSupport.unpark(consumer);
+                }
+                LockSupport.parkNanos(50_000);
+            }
+        }
+    }
+
+    /**
+     * 放入之后才发现已经关闭：消费者可能在这之前就已经退出了。
+     * 等它退出后如果这一行还在槽里，就取回来按关闭之后的方式处理。
+     */
+    private boolean reclaim(int index, long pos, CharSequence record) {
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (sequences.get(index) != pos + 1) {
+            // 消费者退出前已经写出了这一行
+            return true;
+        }
+        records.set(index, null);
+        return rejectClosed(record);
+    }
+
+    private boolean rejectClosed(CharSequence record) {
+        if (writeThroughWhenClosed) {
+            System.out.println(record);
+            return true;
+        }
+        throw new IllegalStateException("sink is closed");
+    }
+
+    /**
+     * 等待调用之前放入的内容全部写出；消费者线程已经停止时立即返回
+     */
+    public void flush() {
+        long target = tail.get();
+        while (written.get() < target && consumer.isAlive()) {
+            if (parked) {
+                LockSupport.unpark(consumer);
+            }
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * 因缓冲区已满而被丢弃的行数
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 不再接受新内容，写完缓冲区里剩下的内容后停止消费者线程
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(consumer);
+        consumer.join();
+    }
+
+    private void run() {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            for (;;) {
+                int count = 0;
+                CharSequence record;
+                while (count < BATCH_SIZE && (record = take()) != null) {
+                    encode(record, encoder, buffer);
+                    count++;
+                }
+                if (count > 0) {
+                    drain(buffer);
+                    written.addAndGet(count);
+                    continue;
+                }
+                if (closed && tail.get() == head) {
+                    break;
+                }
+                parked = true;
+                if (!available()) {
+                    LockSupport.parkNanos(1_000_000);
+                }
+                parked = false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            // 之后的println不再放入缓冲区，已经放入的由reclaim()取回
+            closed = true;
+            if (closeChannel) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private boolean available() {
+        return sequences.get((int) (head & mask)) == head + 1;
+    }
+
+    private CharSequence take() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        CharSequence record = records.get(index);
+        records.set(index, null);
+        sequences.set(index, head + mask + 1);
+        head++;
+        return record;
+    }
+
+    private void encode(CharSequence record, CharsetEncoder encoder, ByteBuffer buffer) throws IOException {
+        // UTF-8每个char最多3个字节；可能放不下整行时先写出已有内容，让这一行从缓冲区开头开始
+        if (buffer.position() > 0 && record.length() * 3L + LINE_SEPARATOR.length > buffer.remaining()) {
+            drain(buffer);
+        }
+        CharBuffer chars = CharBuffer.wrap(record);
+        encoder.reset();
+        for (;;) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                drain(buffer);
+                continue;
+            }
+            result = encoder.flush(buffer);
+            if (result.isOverflow()) {
+                drain(buffer);
+                continue;
+            }
+            break;
+        }
+        if (buffer.remaining() < LINE_SEPARATOR.length) {
+            drain(buffer);
+        }
+        buffer.put(LINE_SEPARATOR);
+    }
+
+    private void drain(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
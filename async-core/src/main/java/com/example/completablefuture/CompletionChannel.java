@@ -0,0 +1,208 @@
+package com.example.completablefuture;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按完成顺序读取一组CompletableFuture的结果，类似ExecutorCompletionService，但不阻塞生产者。
+ * <p>
+ * 容量固定为传入的future个数。每个future完成时通过一次getAndIncrement领取下一个槽位，
+ * 再把自己放进该槽位(槽位本身也是CompletableFuture)，所以入队是无锁的，
+ * 第一个结果在最快的那个任务完成时就可以被消费，不需要像allOf那样等最慢的任务。
+ * <p>
+ * 同一个channel只能被消费一次：poll、take、iterator和subscribe共享同一个读指针。
+ */
+public class CompletionChannel<T> implements Iterable<T> {
+
+    private final CompletableFuture<CompletableFuture<T>>[] slots;
+    private final AtomicInteger writeIndex = new AtomicInteger();
+    private final AtomicInteger readIndex = new AtomicInteger();
+
+    @SuppressWarnings("unchecked")
+    private CompletionChannel(int capacity) {
+        slots = new CompletableFuture[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new CompletableFuture<>();
+        }
+    }
+
+    public static <T> CompletionChannel<T> of(Collection<? extends CompletableFuture<? extends T>> futures) {
+        CompletionChannel<T> channel = new CompletionChannel<>(futures.size());
+        for (CompletableFuture<? extends T> future : futures) {
+            future.whenComplete((r, th) -> channel.offer(future));
+        }
+        return channel;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void offer(CompletableFuture<? extends T> done) {
+        slots[writeIndex.getAndIncrement()].complete((CompletableFuture<T>) done);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * 剩余还没被消费的结果个数(包括尚未完成的)
+     */
+    public int remaining() {
+        return slots.length - readIndex.get();
+    }
+
+    /**
+     * 非阻塞地取出下一个已完成的future；没有已完成的结果或者已经取完时返回null。
+     */
+    public CompletableFuture<T> poll() {
+        for (;;) {
+            int i = readIndex.get();
+            if (i >= slots.length) {
+                return null;
+            }
+            CompletableFuture<T> done = slots[i].getNow(null);
+            if (done == null) {
+                return null;
+            }
+            if (readIndex.compareAndSet(i, i + 1)) {
+                return done;
+            }
+        }
+    }
+
+    /**
+     * 领取下一个槽位，返回一个在对应结果到达时完成的stage；取完后抛出NoSuchElementException。
+     */
+    public CompletableFuture<CompletableFuture<T>> next() {
+        int i = readIndex.getAndIncrement();
+        if (i >= slots.length) {
+            readIndex.set(slots.length);
+            throw new NoSuchElementException();
+        }
+        return slots[i];
+    }
+
+    /**
+     * 阻塞直到下一个结果完成，返回已完成的future(结果或异常保留在其中)。
+     */
+    public CompletableFuture<T> take() {
+        return next().join();
+    }
+
+    /**
+     * 阻塞的迭代器，按完成顺序返回结果；任务失败时next()抛出CompletionException。
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return readIndex.get() < slots.length;
+            }
+
+            @Override
+            public T next() {
+                return take().join();
+            }
+        };
+    }
+
+    /**
+     * 以Flow.Publisher的形式按完成顺序发布结果，遵守订阅者的request(n)背压。
+     * 任意一个任务失败时发出onError并结束。只支持一个订阅者。
+     */
+    public Flow.Publisher<T> publisher() {
+        return subscriber -> {
+            Objects.requireNonNull(subscriber);
+            subscriber.onSubscribe(new ChannelSubscription(subscriber));
+        };
+    }
+
+    private class ChannelSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        // 只在drain中访问，由wip保证单线程
+        private CompletableFuture<CompletableFuture<T>> pending;
+        private boolean waiting;
+
+        ChannelSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                emit();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            while (!cancelled) {
+                if (pending == null) {
+                    if (readIndex.get() >= slots.length) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (demand.get() == 0) {
+                        return;
+                    }
+                    pending = next();
+                }
+                if (!pending.isDone()) {
+                    if (!waiting) {
+                        waiting = true;
+                        pending.thenRun(this::drain);
+                    }
+                    return;
+                }
+                CompletableFuture<T> done = pending.join();
+                pending = null;
+                waiting = false;
+                T value;
+                try {
+                    value = done.join();
+                } catch (CompletionException e) {
+                    cancelled = true;
+                    subscriber.onError(e.getCause() != null ? e.getCause() : e);
+                    return;
+                } catch (RuntimeException e) {
+                    cancelled = true;
+                    subscriber.onError(e);
+                    return;
+                }
+                demand.decrementAndGet();
+                subscriber.onNext(value);
+            }
+        }
+    }
+}
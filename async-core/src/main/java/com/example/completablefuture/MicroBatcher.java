@@ -0,0 +1,141 @@
+package com.example.completablefuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 把单个的异步请求攒成小批量，在一个专用线程上按批处理，再把每个请求的future用对应的结果完成。
+ * <p>
+ * 一个批次在攒够maxBatchSize个请求，或者批次里第一个请求已经等了maxDelay时被处理，
+ * 所以单个请求的额外延迟不超过maxDelay加上一次批处理的时间。
+ * batchFunction必须按输入顺序返回同样数量的结果；它抛出的任何异常(包括Error)都会让整批请求异常完成。
+ */
+public class MicroBatcher<I, O> implements AutoCloseable {
+
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Function<? super List<I>, ? extends List<? extends O>> batchFunction;
+    private final BlockingQueue<Pending<I, O>> queue = new LinkedBlockingQueue<>();
+    // close()放进队列的标记，只用来唤醒等待中的工作线程；不中断工作线程，batchFunction不会被打断
+    private final Pending<I, O> closeMarker = new Pending<>(null, null);
+    private final Thread worker;
+    private volatile boolean closed;
+
+    public MicroBatcher(String name, int maxBatchSize, long maxDelay, TimeUnit unit,
+                        Function<? super List<I>, ? extends List<? extends O>> batchFunction) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.batchFunction = batchFunction;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public CompletableFuture<O> submit(I item) {
+        CompletableFuture<O> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new RejectedExecutionException("batcher is closed"));
+            return future;
+        }
+        Pending<I, O> pending = new Pending<>(item, future);
+        queue.add(pending);
+        // close()可能在上面的检查之后已经跑完，工作线程和close()都不会再取这个请求；
+        // 能移除说明还没人取走，由这里拒绝，否则它一定会被处理或被close()拒绝
+        if (closed && queue.remove(pending)) {
+            future.completeExceptionally(new RejectedExecutionException("batcher is closed"));
+        }
+        return future;
+    }
+
+    /**
+     * 不再接受新请求，处理完已提交的请求后停止工作线程。正在执行的batchFunction不会被中断。
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        queue.add(closeMarker);
+        worker.join();
+        // 工作线程退出后才入队的请求，拒绝掉；close()之后才入队的由submit()自己拒绝
+        Pending<I, O> pending;
+        while ((pending = queue.poll()) != null) {
+            if (pending != closeMarker) {
+                pending.future.completeExceptionally(new RejectedExecutionException("batcher is closed"));
+            }
+        }
+    }
+
+    private void run() {
+        List<Pending<I, O>> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending<I, O> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null || first == closeMarker) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    // 关闭时不再等批次攒满，剩下的请求在下一轮处理
+                    if (batch.size() >= maxBatchSize || remaining <= 0 || closed) {
+                        break;
+                    }
+                    Pending<I, O> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null || next == closeMarker) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // 没有人会中断工作线程；万一被中断，照常处理已经取出的请求
+            }
+            if (closed) {
+                batch.remove(closeMarker);
+            }
+            if (!batch.isEmpty()) {
+                process(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(List<Pending<I, O>> batch) {
+        List<I> items = new ArrayList<>(batch.size());
+        for (Pending<I, O> pending : batch) {
+            items.add(pending.item);
+        }
+        try {
+            List<? extends O> results = batchFunction.apply(items);
+            if (results.size() != batch.size()) {
+                throw new IllegalStateException("Expected " + batch.size() + " results but got " + results.size());
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(results.get(i));
+            }
+        } catch (Throwable e) {
+            for (Pending<I, O> pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class Pending<I, O> {
+        final I item;
+        final CompletableFuture<O> future;
+
+        Pending(I item, CompletableFuture<O> future) {
+            this.item = item;
+            this.future = future;
+        }
+    }
+}
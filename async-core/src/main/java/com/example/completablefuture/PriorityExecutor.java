@@ -0,0 +1,334 @@
+package com.example.completablefuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 按优先级调度的线程池，让延迟敏感的阶段越过排在前面的批量任务。
+ * <p>
+ * 每个优先级一条无锁FIFO队列，工作线程总是取最高优先级的任务。
+ * 为了不让低优先级任务在持续的高优先级负载下被饿死，任务排队超过期限(默认是该优先级的agingNanos，
+ * 也可以为单个任务指定deadline)后算作过期：有更高优先级的任务在等时，每AGED_SHARE次取任务中有一次
+ * 让给更低优先级队列里过期最久的任务。这样过期任务至少能得到这一份吞吐量，
+ * 而新到的高优先级任务仍然排在积压的过期任务前面，最多多等一个任务的时间。
+ * <p>
+ * 期限只在队首检查：同一条队列里仍是先进先出，排在后面的任务即使deadline更早，也要等前面的任务先出队。
+ * <p>
+ * 每个优先级单独统计排队等待时间(次数、平均值、最大值和近似的p99)。
+ * <p>
+ * 通过{@link #priority(Priority)}得到指定优先级的Executor，可以直接传给supplyAsync/thenApplyAsync。
+ */
+public class PriorityExecutor extends AbstractExecutorService {
+
+    public enum Priority {
+        CRITICAL, HIGH, NORMAL, BULK
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+    // 有更高优先级的任务在等时，每AGED_SHARE次取任务有一次给更低优先级队列里的过期任务
+    private static final int AGED_SHARE = 8;
+
+    private final Lane[] lanes = new Lane[PRIORITIES.length];
+    private final Semaphore queued = new Semaphore(0);
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger contended = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    /**
+     * @param agingMillis 每个优先级的最长排队时间，依次对应CRITICAL、HIGH、NORMAL、BULK
+     */
+    public PriorityExecutor(String name, int threadCount, long... agingMillis) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        if (agingMillis.length != PRIORITIES.length) {
+            throw new IllegalArgumentException("Expected " + PRIORITIES.length + " aging values");
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(TimeUnit.MILLISECONDS.toNanos(agingMillis[i]));
+        }
+        running.set(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(this::work, name + "-" + (i + 1));
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+        threads.forEach(Thread::start);
+    }
+
+    /**
+     * 默认期限：CRITICAL 10毫秒，HIGH 50毫秒，NORMAL 200毫秒，BULK 1秒
+     */
+    public PriorityExecutor(String name, int threadCount) {
+        this(name, threadCount, 10, 50, 200, 1000);
+    }
+
+    /**
+     * 以NORMAL优先级执行
+     */
+    @Override
+    public void execute(Runnable command) {
+        execute(command, Priority.NORMAL);
+    }
+
+    public void execute(Runnable command, Priority priority) {
+        Lane lane = lanes[priority.ordinal()];
+        long now = System.nanoTime();
+        submitTask(new Task(command, now, now + lane.agingNanos), lane);
+    }
+
+    /**
+     * 以给定优先级执行，但排队超过deadline后按过期任务处理
+     */
+    public void execute(Runnable command, Priority priority, long deadline, TimeUnit unit) {
+        long now = System.nanoTime();
+        submitTask(new Task(command, now, now + unit.toNanos(deadline)), lanes[priority.ordinal()]);
+    }
+
+    private void submitTask(Task task, Lane lane) {
+        if (task.command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException("executor is shut down");
+        }
+        lane.queue.add(task);
+        queued.release();
+        // shutdown()可能在上面的检查之后让工作线程全部退出了；能移除说明还没有线程取走它，由这里拒绝
+        if (shutdown && lane.queue.remove(task)) {
+            queued.tryAcquire();
+            throw new RejectedExecutionException("executor is shut down");
+        }
+    }
+
+    /**
+     * 指定优先级的Executor视图，例如 cf.thenApplyAsync(fn, executor.priority(Priority.CRITICAL))
+     */
+    public Executor priority(Priority priority) {
+        return command -> execute(command, priority);
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Priority priority) {
+        return CompletableFuture.supplyAsync(supplier, priority(priority));
+    }
+
+    public CompletableFuture<Void> runAsync(Runnable runnable, Priority priority) {
+        return CompletableFuture.runAsync(runnable, priority(priority));
+    }
+
+    /**
+     * 给定优先级的排队等待时间统计
+     */
+    public WaitStats waitStats(Priority priority) {
+        return lanes[priority.ordinal()].stats();
+    }
+
+    private void work() {
+        try {
+            for (;;) {
+                if (shutdown && queued.availablePermits() == 0) {
+                    return;
+                }
+                if (!queued.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                Task task = next();
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    task.command.run();
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutdownNow
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * 已经拿到许可，保证至少有一个任务可取；只有关闭后任务被shutdownNow或被拒绝的提交方取走时返回null
+     */
+    private Task next() {
+        for (;;) {
+            long now = System.nanoTime();
+            int highest = 0;
+            while (highest < lanes.length && lanes[highest].queue.peek() == null) {
+                highest++;
+            }
+            if (highest < lanes.length) {
+                // 更低优先级的队列里过期最久的队首任务
+                Lane aged = null;
+                long agedDeadline = 0;
+                for (int i = highest + 1; i < lanes.length; i++) {
+                    Task head = lanes[i].queue.peek();
+                    if (head != null && head.deadline - now <= 0
+                            && (aged == null || head.deadline - agedDeadline < 0)) {
+                        aged = lanes[i];
+                        agedDeadline = head.deadline;
+                    }
+                }
+                if (aged != null && contended.incrementAndGet() % AGED_SHARE == 0) {
+                    Task task = aged.poll(now);
+                    if (task != null) {
+                        return task;
+                    }
+                }
+                for (int i = highest; i < lanes.length; i++) {
+                    Task task = lanes[i].poll(now);
+                    if (task != null) {
+                        return task;
+                    }
+                }
+            }
+            if (shutdown) {
+                return null;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>();
+        for (Lane lane : lanes) {
+            Task task;
+            while ((task = lane.queue.poll()) != null) {
+                pending.add(task.command);
+                queued.tryAcquire();
+            }
+        }
+        threads.forEach(Thread::interrupt);
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && running.get() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : threads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+        }
+        return isTerminated();
+    }
+
+    private static final class Task {
+        final Runnable command;
+        final long enqueued;
+        final long deadline;
+
+        Task(Runnable command, long enqueued, long deadline) {
+            this.command = command;
+            this.enqueued = enqueued;
+            this.deadline = deadline;
+        }
+    }
+
+    private static final class Lane {
+        // 等待时间直方图，第i个桶统计[2^i, 2^(i+1))纳秒
+        private static final int BUCKETS = 64;
+
+        final long agingNanos;
+        final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+        final LongAdder count = new LongAdder();
+        final LongAdder totalWait = new LongAdder();
+        final AtomicLong maxWait = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        Lane(long agingNanos) {
+            this.agingNanos = agingNanos;
+        }
+
+        Task poll(long now) {
+            Task task = queue.poll();
+            if (task != null) {
+                long wait = Math.max(0, now - task.enqueued);
+                count.increment();
+                totalWait.add(wait);
+                maxWait.accumulateAndGet(wait, Math::max);
+                histogram.incrementAndGet(63 - Long.numberOfLeadingZeros(wait | 1));
+            }
+            return task;
+        }
+
+        WaitStats stats() {
+            long n = count.sum();
+            long[] buckets = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+                total += buckets[i];
+            }
+            long p99 = 0;
+            long threshold = (long) Math.ceil(total * 0.99);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS && total > 0; i++) {
+                seen += buckets[i];
+                if (seen >= threshold) {
+                    p99 = i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                    break;
+                }
+            }
+            return new WaitStats(n, n == 0 ? 0 : totalWait.sum() / n, maxWait.get(), p99);
+        }
+    }
+
+    /**
+     * 排队等待时间统计，单位纳秒。p99为直方图桶的上界，是近似值。
+     */
+    public static final class WaitStats {
+        public final long count;
+        public final long meanNanos;
+        public final long maxNanos;
+        public final long p99Nanos;
+
+        WaitStats(long count, long meanNanos, long maxNanos, long p99Nanos) {
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.maxNanos = maxNanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.3f ms, p99<=%.3f ms, max=%.3f ms", count, meanNanos / 1e6,
+                    p99Nanos / 1e6, maxNanos / 1e6);
+        }
+    }
+}
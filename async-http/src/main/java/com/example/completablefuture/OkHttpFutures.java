@@ -0,0 +1,64 @@
+package com.example.completablefuture;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 把okhttp的异步回调适配成CompletableFuture。
+ * <p>
+ * 请求通过Call.enqueue交给okhttp自己的Dispatcher执行，不占用调用方的线程；
+ * 取消返回的future会同时取消底层的Call。
+ */
+public final class OkHttpFutures {
+
+    private OkHttpFutures() {
+    }
+
+    /**
+     * 异步执行请求。调用方负责关闭返回的Response。
+     */
+    public static CompletableFuture<Response> call(OkHttpClient client, Request request) {
+        Call call = client.newCall(request);
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        future.whenComplete((response, th) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (!future.complete(response)) {
+                    response.close();
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 异步执行请求并读取响应体为字符串，响应会被关闭。
+     */
+    public static CompletableFuture<String> string(OkHttpClient client, Request request) {
+        return call(client, request).thenApply(response -> {
+            try (ResponseBody body = response.body()) {
+                return body == null ? "" : body.string();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.completablefuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比allOf和CompletionChannel拿到第一个结果所需的时间。
+ * 任务分别延迟1到size毫秒完成，CompletionChannel只需要等最快的那个。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionChannelBenchmark {
+
+    @Param({"16"})
+    int size;
+
+    private List<CompletableFuture<Integer>> fanOut() {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int value = i;
+            futures.add(CompletableFuture.supplyAsync(() -> value,
+                    CompletableFuture.delayedExecutor(size - i, TimeUnit.MILLISECONDS)));
+        }
+        return futures;
+    }
+
+    @Benchmark
+    public Integer firstResultAllOf() {
+        List<CompletableFuture<Integer>> futures = fanOut();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        return futures.get(0).join();
+    }
+
+    @Benchmark
+    public Integer firstResultCompletionChannel() {
+        return CompletionChannel.of(fanOut()).take().join();
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.completablefuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在已经挂着outstanding个定时任务的情况下，测量添加并取消一个超时的开销。
+ * ScheduledThreadPoolExecutor(CompletableFuture.delayedExecutor的底层实现)每次插入和删除都是O(log n)并且共用一把锁，
+ * 时间轮都是O(1)的无锁入队。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Threads(4)
+public class TimerBenchmark {
+
+    private static final Runnable NOOP = () -> {
+    };
+
+    @Param({"1000000"})
+    int outstanding;
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private HashedWheelTimer timer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        timer = new HashedWheelTimer("benchmark-timer");
+        for (int i = 0; i < outstanding; i++) {
+            // 分散在一小时内，测量期间都不会到期
+            long delay = TimeUnit.HOURS.toMillis(1) + i % 3_600_000;
+            scheduler.schedule(NOOP, delay, TimeUnit.MILLISECONDS);
+            timer.newTimeout(NOOP, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        scheduler.shutdownNow();
+        timer.close();
+    }
+
+    @Benchmark
+    public boolean scheduledThreadPoolExecutor() {
+        ScheduledFuture<?> f = scheduler.schedule(NOOP, 30, TimeUnit.SECONDS);
+        return f.cancel(false);
+    }
+
+    @Benchmark
+    public boolean hashedWheelTimer() {
+        return timer.newTimeout(NOOP, 30, TimeUnit.SECONDS).cancel();
+    }
+}
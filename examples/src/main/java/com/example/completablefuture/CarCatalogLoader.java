@@ -0,0 +1,260 @@
+package com.example.completablefuture;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * 流式加载UTF-8编码的CSV格式的车辆目录，每行为 id,manufacturerId,model,year。
+ * 开头的BOM、第一行的表头和空行会被跳过，其他格式不对的行抛出IllegalArgumentException。
+ * <p>
+ * 文件通过FileChannel读进一块大的直接缓冲区，数字字段直接从字节解析，不经过String；
+ * model字段通过一个小的驻留表复用已经见过的字符串，重复的型号不会重复分配。
+ * 每解析出chunkSize辆车就交给onChunk，加载线程继续读下一块，读文件和后续的评分可以重叠。
+ * 同时未完成的chunk最多maxInFlight个，超过时加载线程等待最早的那个完成，避免整个目录堆在堆上。
+ */
+public class CarCatalogLoader {
+
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final int chunkSize;
+    private final int maxInFlight;
+    private final String[] models = new String[4096];
+    // 驻留表里每个字符串对应的原始字节，按字节比较就不用先解码
+    private final byte[][] modelBytes = new byte[models.length][];
+
+    public CarCatalogLoader(int chunkSize, int maxInFlight) {
+        if (chunkSize <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("chunkSize and maxInFlight must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * 在executor上加载文件，所有chunk都处理完后返回的future以统计信息完成。
+     */
+    public CompletableFuture<Stats> load(Path file, Executor executor,
+                                         Function<? super List<Car>, ? extends CompletionStage<?>> onChunk) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return read(file, onChunk);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private Stats read(Path file, Function<? super List<Car>, ? extends CompletionStage<?>> onChunk) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        long records = 0;
+        Deque<CompletableFuture<?>> inFlight = new ArrayDeque<>();
+        List<Car> chunk = new ArrayList<>(chunkSize);
+        int[] fields = new int[8];
+        boolean firstRow = true;
+        boolean fileStart = true;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            boolean eof = false;
+            while (!eof) {
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    eof = true;
+                    if (buffer.position() > 0 && buffer.get(buffer.position() - 1) != '\n') {
+                        if (!buffer.hasRemaining()) {
+                            throw new IOException("Line longer than " + BUFFER_SIZE + " bytes in " + file);
+                        }
+                        buffer.put((byte) '\n');
+                    }
+                } else {
+                    bytes += n;
+                }
+                buffer.flip();
+
+                int lineStart = buffer.position();
+                if (fileStart && startsWithBom(buffer, lineStart)) {
+                    lineStart += 3;
+                }
+                fileStart = false;
+                for (int i = lineStart; i < buffer.limit(); i++) {
+                    if (buffer.get(i) != '\n') {
+                        continue;
+                    }
+                    int lineEnd = i > lineStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                    if (lineEnd == lineStart) {
+                        lineStart = i + 1;
+                        continue;
+                    }
+                    Car car = parse(buffer, lineStart, lineEnd, fields, firstRow);
+                    firstRow = false;
+                    if (car != null) {
+                        chunk.add(car);
+                        records++;
+                        if (chunk.size() == chunkSize) {
+                            emit(chunk, onChunk, inFlight);
+                            chunk = new ArrayList<>(chunkSize);
+                        }
+                    }
+                    lineStart = i + 1;
+                }
+                buffer.position(lineStart);
+                if (lineStart == 0 && buffer.limit() == buffer.capacity()) {
+                    throw new IOException("Line longer than " + BUFFER_SIZE + " bytes in " + file);
+                }
+                buffer.compact();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            emit(chunk, onChunk, inFlight);
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).join();
+        return new Stats(bytes, records, System.nanoTime() - start);
+    }
+
+    private void emit(List<Car> chunk, Function<? super List<Car>, ? extends CompletionStage<?>> onChunk,
+                      Deque<CompletableFuture<?>> inFlight) {
+        inFlight.addLast(onChunk.apply(chunk).toCompletableFuture());
+        while (!inFlight.isEmpty() && inFlight.peekFirst().isDone()) {
+            inFlight.pollFirst().join();
+        }
+        if (inFlight.size() >= maxInFlight) {
+            inFlight.pollFirst().join();
+        }
+    }
+
+    /**
+     * 解析[from, to)之间的一个非空行。第一行不以数字开头时当作表头跳过；
+     * 其他行不以数字开头或者字段不足时抛出IllegalArgumentException。
+     */
+    private Car parse(ByteBuffer buffer, int from, int to, int[] fields, boolean firstRow) {
+        if (!isDigit(buffer.get(from))) {
+            if (firstRow) {
+                return null;
+            }
+            throw new IllegalArgumentException("Not a catalog row: " + text(buffer, from, to));
+        }
+        // fields保存每个字段的起止位置
+        int count = 0;
+        int fieldStart = from;
+        for (int i = from; i <= to && count < 8; i++) {
+            if (i == to || buffer.get(i) == ',') {
+                fields[count++] = fieldStart;
+                fields[count++] = i;
+                fieldStart = i + 1;
+            }
+        }
+        if (count < 8) {
+            throw new IllegalArgumentException("Expected 4 fields: " + text(buffer, from, to));
+        }
+        return new Car(parseInt(buffer, fields[0], fields[1]), parseInt(buffer, fields[2], fields[3]),
+                model(buffer, fields[4], fields[5]), parseInt(buffer, fields[6], fields[7]));
+    }
+
+    private static boolean startsWithBom(ByteBuffer buffer, int from) {
+        return buffer.limit() - from >= 3 && buffer.get(from) == (byte) 0xEF
+                && buffer.get(from + 1) == (byte) 0xBB && buffer.get(from + 2) == (byte) 0xBF;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * 解析非负的十进制整数，超出int范围时抛出NumberFormatException
+     */
+    private static int parseInt(ByteBuffer buffer, int from, int to) {
+        if (from == to) {
+            throw new NumberFormatException("empty field");
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (!isDigit(b)) {
+                throw new NumberFormatException("Not a number: " + text(buffer, from, to));
+            }
+            int digit = b - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("Number out of range: " + text(buffer, from, to));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private String model(ByteBuffer buffer, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (models.length - 1);
+        byte[] cached = modelBytes[slot];
+        if (cached != null && matches(cached, buffer, from, to)) {
+            return models[slot];
+        }
+        byte[] bytes = bytes(buffer, from, to);
+        String model = new String(bytes, StandardCharsets.UTF_8);
+        modelBytes[slot] = bytes;
+        models[slot] = model;
+        return model;
+    }
+
+    private static boolean matches(byte[] bytes, ByteBuffer buffer, int from, int to) {
+        if (bytes.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != buffer.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return bytes;
+    }
+
+    private static String text(ByteBuffer buffer, int from, int to) {
+        return new String(bytes(buffer, from, to), StandardCharsets.UTF_8);
+    }
+
+    public static final class Stats {
+        public final long bytes;
+        public final long records;
+        public final long nanos;
+
+        Stats(long bytes, long records, long nanos) {
+            this.bytes = bytes;
+            this.records = records;
+            this.nanos = nanos;
+        }
+
+        public double megabytesPerSecond() {
+            return nanos == 0 ? 0 : bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records, %.1f MB in %d ms (%.1f MB/s)", records, bytes / (1024.0 * 1024.0),
+                    nanos / 1_000_000, megabytesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.completablefuture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 协调进程和评分进程之间的二进制帧格式。
+ * <p>
+ * 每帧以1字节类型开头：
+ * <ul>
+ * <li>BATCH: int batchId | int count | count * (int id, int manufacturerId, int year, UTF model)</li>
+ * <li>RESULT: int batchId | int count | count * float rating，顺序与BATCH中的车辆一致</li>
+ * <li>SHUTDOWN: 无内容</li>
+ * </ul>
+ */
+final class CarFrames {
+
+    static final byte BATCH = 1;
+    static final byte RESULT = 2;
+    static final byte SHUTDOWN = 3;
+
+    private CarFrames() {
+    }
+
+    /**
+     * 把BATCH帧编码到数组里，编码失败(例如model超过writeUTF的64KB上限)时连接上不会留下半个帧
+     */
+    static byte[] encodeBatch(int batchId, List<Car> cars) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + cars.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(BATCH);
+        out.writeInt(batchId);
+        out.writeInt(cars.size());
+        for (Car car : cars) {
+            out.writeInt(car.id);
+            out.writeInt(car.manufacturerId);
+            out.writeInt(car.year);
+            out.writeUTF(car.model);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<Car> readCars(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Car> cars = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            int manufacturerId = in.readInt();
+            int year = in.readInt();
+            cars.add(new Car(id, manufacturerId, in.readUTF(), year));
+        }
+        return cars;
+    }
+
+    static void writeResult(DataOutputStream out, int batchId, List<Car> cars) throws IOException {
+        out.writeByte(RESULT);
+        out.writeInt(batchId);
+        out.writeInt(cars.size());
+        for (Car car : cars) {
+            out.writeFloat(car.rating);
+        }
+    }
+
+    static float[] readRatings(DataInputStream in) throws IOException {
+        float[] ratings = new float[in.readInt()];
+        for (int i = 0; i < ratings.length; i++) {
+            ratings[i] = in.readFloat();
+        }
+        return ratings;
+    }
+}
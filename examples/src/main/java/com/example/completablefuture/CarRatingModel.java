@@ -0,0 +1,128 @@
+package com.example.completablefuture;
+
+import org.tensorflow.DataType;
+import org.tensorflow.Graph;
+import org.tensorflow.Operation;
+import org.tensorflow.Output;
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.Tensors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用TensorFlow模型根据车辆特征(manufacturer、year、model)计算评分。
+ * <p>
+ * 单个rating请求先进入MicroBatcher，攒成批后在专用线程上做一次Session.run，
+ * 再用输出张量里对应的那一行完成每个请求的future。
+ * <p>
+ * 模型的输入是名为"features"的[batch, 3] float张量，输出是名为"rating"的[batch, 1] float张量。
+ */
+public class CarRatingModel implements AutoCloseable {
+
+    static final String INPUT = "features";
+    static final String OUTPUT = "rating";
+    static final int FEATURES = 3;
+
+    private final Graph graph;
+    private final Session session;
+    private final MicroBatcher<Car, Float> batcher;
+    private final AtomicLong batches = new AtomicLong();
+
+    private CarRatingModel(Graph graph, int maxBatchSize, long maxDelay, TimeUnit unit) {
+        this.graph = graph;
+        this.session = new Session(graph);
+        this.batcher = new MicroBatcher<>("car-rating-model", maxBatchSize, maxDelay, unit, this::score);
+    }
+
+    /**
+     * 从序列化的GraphDef加载模型
+     */
+    public static CarRatingModel load(byte[] graphDef, int maxBatchSize, long maxDelay, TimeUnit unit) {
+        Graph graph = new Graph();
+        try {
+            graph.importGraphDef(graphDef);
+        } catch (RuntimeException e) {
+            graph.close();
+            throw e;
+        }
+        return new CarRatingModel(graph, maxBatchSize, maxDelay, unit);
+    }
+
+    /**
+     * 在本地生成一个小的线性模型：rating = 5 * sigmoid(features x weights + bias)
+     */
+    public static CarRatingModel linear(int maxBatchSize, long maxDelay, TimeUnit unit) {
+        Graph graph = new Graph();
+        Output<Float> features = graph.opBuilder("Placeholder", INPUT)
+                .setAttr("dtype", DataType.FLOAT)
+                .build().output(0);
+        Output<Float> weights = constant(graph, "weights", new float[][]{{0.05f}, {0.3f}, {-0.1f}});
+        Output<Float> bias = constant(graph, "bias", 0.2f);
+        Output<Float> scale = constant(graph, "scale", 5f);
+
+        Output<Float> logits = binary(graph, "Add", "logits", binary(graph, "MatMul", "matmul", features, weights), bias);
+        Output<Float> sigmoid = graph.opBuilder("Sigmoid", "sigmoid").addInput(logits).build().output(0);
+        binary(graph, "Mul", OUTPUT, sigmoid, scale);
+        return new CarRatingModel(graph, maxBatchSize, maxDelay, unit);
+    }
+
+    public CompletableFuture<Float> rating(Car car) {
+        return batcher.submit(car);
+    }
+
+    /**
+     * 已执行的Session.run次数
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    static float[] features(Car car) {
+        return new float[]{car.manufacturerId / 10f, (car.year - 2000) / 10f, car.model.length() / 10f};
+    }
+
+    private List<Float> score(List<Car> cars) {
+        float[][] input = new float[cars.size()][];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = features(cars.get(i));
+        }
+        float[][] output = new float[cars.size()][1];
+        try (Tensor<Float> in = Tensors.create(input);
+             Tensor<?> out = session.runner().feed(INPUT, in).fetch(OUTPUT).run().get(0)) {
+            out.copyTo(output);
+        }
+        batches.incrementAndGet();
+
+        List<Float> ratings = new ArrayList<>(output.length);
+        for (float[] row : output) {
+            ratings.add(row[0]);
+        }
+        return ratings;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        batcher.close();
+        session.close();
+        graph.close();
+    }
+
+    private static Output<Float> constant(Graph graph, String name, Object value) {
+        try (Tensor<Float> t = Tensor.create(value, Float.class)) {
+            return graph.opBuilder("Const", name)
+                    .setAttr("dtype", DataType.FLOAT)
+                    .setAttr("value", t)
+                    .build().output(0);
+        }
+    }
+
+    private static Output<Float> binary(Graph graph, String type, String name, Output<Float> x, Output<Float> y) {
+        Operation op = graph.opBuilder(type, name).addInput(x).addInput(y).build();
+        return op.output(0);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.completablefuture;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式加载车辆目录，边读文件边评分。
+ * 不传参数时在临时目录生成一个100万行的目录文件；也可以传入自己的CSV文件路径。
+ */
+public class CatalogLoaderExample {
+
+    private static final String[] MODELS = {"Fiesta", "Camry", "M2", "Golf", "Civic", "Model 3", "A4", "Corolla"};
+
+    public static void main(String[] args) throws Exception {
+        Path catalog = args.length > 0 ? Paths.get(args[0]) : generate(1_000_000);
+        ExecutorService loaderThread = Executors.newSingleThreadExecutor();
+        try {
+            // 只解析，不做后续处理，得到纯读取+解析的吞吐
+            CarCatalogLoader.Stats parseOnly = new CarCatalogLoader(10_000, 4)
+                    .load(catalog, loaderThread, chunk -> CompletableFuture.completedFuture(null)).join();
+            System.out.println("Parse only: " + parseOnly);
+
+            // 每个chunk交给模型评分，读文件和评分重叠进行
+            try (CarRatingModel model = CarRatingModel.linear(1024, 5, TimeUnit.MILLISECONDS)) {
+                CarCatalogLoader.Stats rated = new CarCatalogLoader(10_000, 4)
+                        .load(catalog, loaderThread, chunk -> rate(model, chunk)).join();
+                System.out.println("Parse and rate: " + rated + ", " + model.batches() + " model batches");
+            }
+        } finally {
+            loaderThread.shutdown();
+        }
+    }
+
+    private static CompletableFuture<Void> rate(CarRatingModel model, List<Car> chunk) {
+        return CompletableFuture.allOf(chunk.stream()
+                .map(car -> model.rating(car).thenAccept(car::setRating))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    private static Path generate(int rows) throws IOException {
+        Path file = Files.createTempFile("car-catalog", ".csv");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)) {
+            writer.write("id,manufacturerId,model,year\n");
+            for (int i = 1; i <= rows; i++) {
+                writer.write(i + "," + (i % 10) + "," + MODELS[i % MODELS.length] + "," + (2000 + i % 20) + "\n");
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,951 @@
+package com.example.completablefuture;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Test;
+import org.junit.experimental.theories.suppliers.TestedOn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class CompletableFutureExamples {
+
+    static ExecutorService executor = Executors.newFixedThreadPool(6, new ThreadFactory() {
+        int count = 1;
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "custom-executor-" + count++);
+        }
+    });
+
+    static Random random = new Random();
+
+    // 使用一个预定义的结果创建一个完成的CompletableFuture,通常我们会在计算的开始阶段使用它。
+    @Test
+    public void completedFutureExample() {
+        CompletableFuture<String> cf = CompletableFuture.completedFuture("message");
+        assertTrue(cf.isDone());
+        assertEquals("message", cf.getNow(null));
+    }
+
+    // 处理要抛出的异常，可做分支处理，正确与错误
+    // 如果尚未完成，则会调用get（）和相关方法来抛出给定的异常。
+    @Test
+    public void completeExceptionallyExample() {
+        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApplyAsync(String::toUpperCase, CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS));
+        CompletableFuture<String> exceptionHandler = cf.handle((s, th) -> (th != null) ? "message upon cancel" : "");
+        cf.completeExceptionally(new RuntimeException("completed exceptionally"));
+        assertTrue("Was not completed exceptionally", cf.isCompletedExceptionally());
+        try {
+            cf.join();
+            fail("Should have thrown an exception");
+        } catch (CompletionException ex) { // just for testing
+            assertEquals("completed exceptionally", ex.getCause().getMessage());
+            System.out.println(ex.getCause().getMessage());
+        }
+
+        assertEquals("message upon cancel", exceptionHandler.join());
+    }
+
+    //CompletableFuture的方法如果以Async结尾，它会异步的执行(没有指定executor的情况下)， 异步执行通过ForkJoinPool实现， 它使用守护线程去执行任务。注意这是CompletableFuture的特性， 其它CompletionStage可以override这个默认的行为。
+    @Test
+    public void runAsyncExample() {
+        CompletableFuture<Void> cf = null;
+        for (int i = 0; i < 100; i++) {
+            cf = CompletableFuture.runAsync(okHttpClientTest::requestOkHttp);
+        }
+        System.out.println(cf.join());
+        System.out.println(ForkJoinPool.commonPool().getPoolSize());
+
+    }
+
+    /**
+     * 把okhttp的异步调用适配成CompletableFuture
+     *
+     * 请求由okhttp自己的Dispatcher执行，不占用调用方的线程；取消future会同时取消底层的Call。
+     * 这里用本机上的一个小HTTP服务代替真实的后端。
+     */
+    @Test
+    public void okHttpAsyncExample() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread stub = new Thread(() -> serveHttp(server), "http-stub");
+            stub.setDaemon(true);
+            stub.start();
+            OkHttpClient client = new OkHttpClient();
+            String base = "http://127.0.0.1:" + server.getLocalPort();
+
+            List<CompletableFuture<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                responses.add(OkHttpFutures.string(client, new Request.Builder().url(base + "/hello/" + i).build()));
+            }
+            List<String> bodies = new ArrayList<>();
+            for (String body : CompletionChannel.of(responses)) {
+                bodies.add(body);
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                assertEquals("hello " + i, responses.get(i).join());
+            }
+            assertEquals(10, bodies.size());
+
+            // 服务端永远不回复的请求，取消future后底层的Call也被取消
+            CompletableFuture<Response> hanging = OkHttpFutures.call(client,
+                    new Request.Builder().url(base + "/hang").build());
+            Call call = null;
+            while (call == null) {
+                sleep(10);
+                call = client.dispatcher().runningCalls().stream()
+                        .filter(c -> c.request().url().encodedPath().equals("/hang"))
+                        .findFirst().orElse(null);
+            }
+            assertFalse(call.isCanceled());
+            assertTrue(hanging.cancel(true));
+            assertTrue(call.isCanceled());
+        }
+    }
+
+    // 对/hello/{n}回复"hello n"，对/hang只读请求不回复；serverSocket关闭后退出
+    private static void serveHttp(ServerSocket server) {
+        List<Socket> hung = new ArrayList<>();
+        try {
+            for (;;) {
+                Socket socket = server.accept();
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.ISO_8859_1));
+                String path = in.readLine().split(" ")[1];
+                String header;
+                while ((header = in.readLine()) != null && !header.isEmpty()) {
+                    // 忽略请求头
+                }
+                if (path.equals("/hang")) {
+                    hung.add(socket);
+                    continue;
+                }
+                String body = "hello " + path.substring(path.lastIndexOf('/') + 1);
+                socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: "
+                        + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.ISO_8859_1));
+                socket.close();
+            }
+        } catch (IOException e) {
+            // serverSocket已关闭
+        } finally {
+            for (Socket socket : hung) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * then意味着这个阶段的动作发生当前的阶段正常完成之后。本例中，当前节点完成，返回字符串message。
+     * <p>
+     * Apply意味着返回的阶段将会对结果前一阶段的结果应用一个函数。
+     * <p>
+     * 函数的执行会被阻塞，这意味着getNow()只有大写操作被完成后才返回
+     */
+    @Test
+    public void thenApplyExample() {
+        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApply(s -> {
+            assertFalse(Thread.currentThread().isDaemon());
+            return s.toUpperCase();
+        });
+        assertEquals("MESSAGE", cf.getNow(null));
+    }
+
+    /**
+     * 在前一个阶段上异步应用函数
+     * <p>
+     * 通过调用异步方法(方法后边加Async后缀)，串联起来的CompletableFuture可以异步地执行（使用ForkJoinPool.commonPool()）。
+     */
+    @Test
+    public void thenApplyAsyncExample() {
+        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApplyAsync(s -> {
+            assertTrue(Thread.currentThread().isDaemon());
+            return s.toUpperCase();
+        });
+        assertNull(cf.getNow(null));
+        System.out.println(cf.getNow(null));
+        assertEquals("MESSAGE", cf.join());
+        System.out.println(cf.join());
+    }
+
+    //异步方法一个非常有用的特性就是能够提供一个Executor来异步地执行CompletableFuture。这个例子演示了如何使用一个固定大小的线程池来应用大写函数。
+    @Test
+    public void thenApplyAsyncWithExecutorExample() {
+        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApplyAsync(s -> {
+            assertTrue(Thread.currentThread().getName().startsWith("custom-executor-"));
+            assertFalse(Thread.currentThread().isDaemon());
+            return s.toUpperCase();
+        }, executor);
+
+        assertNull(cf.getNow(null));
+        assertEquals("MESSAGE", cf.join());
+    }
+
+    //如果下一阶段接收了当前阶段的结果，但是在计算的时候不需要返回值(它的返回类型是void)，
+    // 那么它可以不应用一个函数，而是一个消费者， 调用方法也变成了thenAccept:
+    @Test
+    public void thenAcceptExample() {
+        StringBuilder result = new StringBuilder();
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            list.add(i + 1);
+        }
+        CompletableFuture.completedFuture(list).thenAccept(result::append);
+        assertTrue("Result was empty", result.length() > 0);
+        System.out.println(result.toString());
+    }
+
+    // 异步消费
+    @Test
+    public void thenAcceptAsyncExample() {
+        StringBuilder result = new StringBuilder();
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            list.add(i + 1);
+        }
+        List<String> list2 = new ArrayList<>() {{
+            add("a");
+            add("b");
+        }};
+        CompletableFuture<Void> cf = CompletableFuture.completedFuture(list).thenAcceptAsync(result::append, executor);
+        cf.join();
+        assertTrue("Result was empty", result.length() > 0);
+        System.out.println(result.toString());
+    }
+
+    //和完成异常类似，我们可以调用cancel(boolean mayInterruptIfRunning)取消计算。对于CompletableFuture类，布尔参数并没有被使用，这是因为它并没有使用中
+    // 断去取消操作，相反，cancel等价于completeExceptionally(new CancellationException())。
+    @Test
+    public void cancelExample() {
+        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApplyAsync(String::toUpperCase, CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS));
+        CompletableFuture<String> cf2 = cf.exceptionally(throwable -> "canceled message");
+        assertTrue("Was not canceled", cf.cancel(true));
+        assertTrue("Was not completed exceptionally", cf.isCompletedExceptionally());
+        assertEquals("canceled message", cf2.join());
+    }
+
+    private List<Object> testList = new ArrayList<>();
+
+    /**
+     * 返回一个与此阶段具有相同结果或异常的新CompletionStage，当此阶段完成时，
+     * 执行给定操作使用此阶段的默认异步执行工具执行给定操作，结果（如果没有则为null）和异常（或 如果没有，则将此阶段作为参数。
+     */
+    @Test
+    public void whenCompleteExample() {
+        for (int i = 0; i < 20; i++) {
+            testList.add(i);
+        }
+
+        List<Object> values = new ArrayList<>();
+        CompletableFuture.completedFuture(testList).whenCompleteAsync((list, throwable) -> {
+            if (throwable == null) {
+                for (int i = 20; i < 40; i++) {
+                    list.add(i);
+                    if (i == 21){
+                        try {
+                            Thread.sleep(3000);
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        }, executor).thenApplyAsync(this::changeResultType).thenAcceptAsync(values::addAll).join();
+
+        System.out.println(values);
+    }
+
+    private List<Object> changeResultType(List<Object> list) {
+        ArrayList<Object> objects = new ArrayList<>();
+        for (Object object : list) {
+            objects.add(String.valueOf(object) + "-x");
+        }
+        return objects;
+    }
+
+    /**
+     * 在两个完成的阶段其中之一上应用函数
+     *  在其中之一上应用函数(保证哪一个被执行)。 本例中的两个阶段一个是应用大写转换在原始的字符串上， 另一个阶段是应用小些转换。
+     */
+    @Test
+    public void applyToEitherExample() throws ExecutionException, InterruptedException {
+        String original = "Message";
+        CompletableFuture<String> cf = CompletableFuture.completedFuture(original)
+                                        .thenApplyAsync(s -> delayedUpperCase(s))
+                                        .applyToEither(CompletableFuture.completedFuture(original)
+                                        .thenApplyAsync(s -> delayedLowerCase(s)), s -> s + " from applyToEither");
+
+//        CompletableFuture<String> cf1 = CompletableFuture.completedFuture(original)
+//                                        .thenApplyAsync(s -> delayedUpperCase(s));
+//        CompletableFuture<String> cf = cf1.applyToEither(
+//                CompletableFuture.completedFuture(original).thenApplyAsync(s -> delayedLowerCase(s)),
+//                s -> s + " from applyToEither");
+        assertTrue(cf.join().endsWith(" from applyToEither"));
+        System.out.println(cf.get());
+    }
+
+    /**
+     * 在两个完成的阶段其中之一上调用消费函数
+     */
+    @Test
+    public void acceptEitherExample() {
+        String original = "Message";
+        StringBuilder result = new StringBuilder();
+        CompletableFuture<Void> cf = CompletableFuture.completedFuture(original)
+                                            .thenApplyAsync(s -> delayedUpperCase(s))
+                                            .acceptEither(CompletableFuture.completedFuture(original)
+                                            .thenApplyAsync(s -> delayedLowerCase(s)), s -> result.append(s).append("acceptEither"));
+        cf.join();
+        assertTrue("Result was empty", result.toString().endsWith("acceptEither"));
+        System.out.println(result.toString());
+    }
+
+    /**
+     * 在两个阶段都执行完后运行一个 Runnable
+     * 注意下面所有的阶段都是同步执行的，第一个阶段执行大写转换，第二个阶段执行小写转换。
+     */
+    @Test
+    public void runAfterBothExample() {
+        String original = "Message";
+        StringBuilder result = new StringBuilder();
+        CompletableFuture<Void> done = CompletableFuture.completedFuture(original)
+                                        .thenApply(String::toUpperCase)
+                                        .runAfterBoth(CompletableFuture.completedFuture(original)
+                                        .thenApply(String::toLowerCase), () -> result.append("done"));
+        assertTrue("Result was empty", result.length() > 0);
+        System.out.println(result);
+    }
+
+    /**
+     * 使用BiConsumer处理两个阶段的结果
+     */
+    @Test
+    public void thenAcceptBothExample() {
+        String original = "Message";
+        StringBuilder result = new StringBuilder();
+        CompletableFuture.completedFuture(original)
+                            .thenApply(String::toUpperCase)
+                            .thenAcceptBoth(CompletableFuture.completedFuture(original)
+                                      .thenApply(String::toLowerCase), (s1, s2) -> result.append(s1).append(s2));
+        assertEquals("MESSAGEmessage", result.toString());
+        System.out.println(result);
+    }
+
+    /**
+     * 使用BiFunction处理两个阶段的结果
+     *
+     * 如果CompletableFuture依赖两个前面阶段的结果， 它复合两个阶段的结果再返回一个结果，
+     * 我们就可以使用thenCombine()函数。整个流水线是同步的，所以getNow()会得到最终的结果，它把大写和小写字符串连接起来。
+     */
+    @Test
+    public void thenCombineExample() {
+        String original = "Message";
+        CompletableFuture<String> cf = CompletableFuture.completedFuture(original)
+                                        .thenApply(CompletableFutureExamples::delayedUpperCase)
+                                        .thenCombine(CompletableFuture.completedFuture(original)
+                                                .thenApply(CompletableFutureExamples::delayedLowerCase), (s1, s2) -> s1 + s2);
+        assertEquals("MESSAGEmessage", cf.getNow(null));
+    }
+
+    /**
+     * 异步使用BiFunction处理两个阶段的结果
+     *
+     * 类似上面的例子，但是有一点不同： 依赖的前两个阶段异步地执行，所以thenCombine()也异步地执行，即时它没有Async后缀。
+     */
+    @Test
+    public void thenCombineAsyncExample() {
+        String original = "Message";
+        CompletableFuture<String> cf = CompletableFuture.completedFuture(original)
+                                        .thenApplyAsync(s -> delayedUpperCase(s))
+                                        .thenCombine(CompletableFuture.completedFuture(original)
+                                                .thenApplyAsync(s -> delayedLowerCase(s)), (s1, s2) -> s1 + s2);
+        assertEquals("MESSAGEmessage", cf.join());
+    }
+
+    /**
+     * 组合 CompletableFuture
+     *
+     * 我们可以使用thenCompose()完成上面两个例子。这个方法等待第一个阶段的完成(大写转换)，
+     * 它的结果传给一个指定的返回CompletableFuture函数，它的结果就是返回的CompletableFuture的结果。
+     */
+    @Test
+    public void thenComposeExample() {
+        String original = "Message";
+        CompletableFuture<String> cf = CompletableFuture.completedFuture(original)
+                                                        .thenApply(s -> delayedUpperCase(s))
+                                                        .thenCompose(upper -> CompletableFuture.completedFuture(original)
+                                                                .thenApply(s -> delayedLowerCase(s))
+                                                                .thenApply(s -> upper + s));
+        assertEquals("MESSAGEmessage", cf.join());
+    }
+
+    @Test
+    public void thenComposeAsyncExample() {
+        String original = "Message";
+        CompletableFuture<String> cf = CompletableFuture.completedFuture(original)
+                                                        .thenApplyAsync(s -> delayedUpperCase(s))
+                                                        .thenCompose(upper -> CompletableFuture.completedFuture(original)
+                                                                .thenApplyAsync(s -> delayedLowerCase(s))
+                                                                .thenApplyAsync(s -> upper + s));
+        assertEquals("MESSAGEmessage", cf.join());
+    }
+
+    /**
+     * 当几个阶段中的一个完成，创建一个完成的阶段
+     *
+     * 当任意一个CompletableFuture完成后， 创建一个完成的CompletableFuture.
+     *
+     * 待处理的阶段首先创建， 每个阶段都是转换一个字符串为大写。因为本例中这些阶段都是同步地执行(thenApply),
+     * 从anyOf中创建的CompletableFuture会立即完成，这样所有的阶段都已完成，我们使用whenComplete(BiConsumer<? super Object, ? super Throwable> action)处理完成的结果。
+     */
+    @Test
+    public void anyOfExample() {
+        StringBuilder result = new StringBuilder();
+        List<String> messages = Arrays.asList("a", "b", "c");
+
+        CompletableFuture.anyOf(messages.stream()
+                            .map(msg -> CompletableFuture.completedFuture(msg)
+                                    .thenApply(CompletableFutureExamples::delayedUpperCase))
+                                    .toArray(CompletableFuture[]::new)).whenComplete((res, th) -> {
+
+            if (th == null) {
+                assertTrue(isUpperCase((String) res));
+                result.append(res);
+            }
+        });
+        assertTrue("Result was empty", result.length() > 0);
+        System.out.println(result.toString());
+    }
+
+    /**
+     * 当所有的阶段都完成后创建一个阶段
+     *
+     * 上一个例子是当任意一个阶段完成后接着处理，
+     * 接下来的两个例子演示当所有的阶段完成后才继续处理, 同步地方式和异步地方式两种。
+     */
+    @Test
+    public void allOfExample() {
+        StringBuilder result = new StringBuilder();
+        List<String> messages = Arrays.asList("a", "b", "c");
+        List<CompletableFuture<String>> futures = messages.stream()
+                                                .map(msg -> CompletableFuture.completedFuture(msg)
+                                                        .thenApply(s -> delayedUpperCase(s)))
+                                                        .collect(Collectors.toList());
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((v, th) -> {
+            futures.forEach(cf -> assertTrue(isUpperCase(cf.getNow(null))));
+            result.append("done");
+            result.append(futures.stream().map(list -> list.getNow(null)).collect(Collectors.toList()));
+        });
+        assertTrue("Result was empty", result.length() > 0);
+        System.out.println(result.toString());
+    }
+
+    /**
+     * 当所有的阶段都完成后异步地创建一个阶段
+     * 使用thenApplyAsync()替换那些单个的CompletableFutures的方法，
+     * allOf()会在通用池中的线程中异步地执行。所以我们需要调用join方法等待它完成。
+     */
+    static ExecutorService executorService = Executors.newFixedThreadPool(5);
+    @Test
+    public void allOfAsyncExample() {
+
+        StringBuilder result = new StringBuilder();
+        List<String> messages = Arrays.asList("a", "b", "c", "d", "e");
+        List<CompletableFuture<String>> futures = messages.stream()
+                .map(msg -> CompletableFuture.completedFuture(msg)
+                        .thenApplyAsync(s -> delayedUpperCase(s), executorService))
+                .collect(Collectors.toList());
+
+        CompletableFuture<Void> allOf = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((v, th) -> {
+            futures.forEach(cf -> assertTrue(isUpperCase(cf.getNow(null))));
+            result.append("done");
+            result.append(futures.stream().map(list -> list.getNow(null)).collect(Collectors.toList()));
+        });
+        allOf.join();
+        assertTrue("Result was empty", result.length() > 0);
+        System.out.println(result.toString());
+    }
+
+    /**
+     * 按完成顺序处理结果
+     *
+     * allOf要等最慢的阶段完成后才能读取结果，CompletionChannel则在每个阶段完成时立即交出结果，
+     * 第一个结果的等待时间只取决于最快的那个任务。
+     */
+    @Test
+    public void completionOrderExample() {
+        List<String> messages = Arrays.asList("c", "a", "b");
+        List<CompletableFuture<String>> futures = messages.stream()
+                .map(msg -> CompletableFuture.completedFuture(msg)
+                        .thenApplyAsync(String::toUpperCase, CompletableFuture.delayedExecutor(
+                                (msg.charAt(0) - 'a' + 1) * 100, TimeUnit.MILLISECONDS)))
+                .collect(Collectors.toList());
+
+        List<String> result = new ArrayList<>();
+        for (String s : CompletionChannel.of(futures)) {
+            result.add(s);
+        }
+        assertEquals(Arrays.asList("A", "B", "C"), result);
+        System.out.println(result);
+    }
+
+    /**
+     * 用时间轮实现延迟执行和超时
+     *
+     * 和CompletableFuture.delayedExecutor/orTimeout/completeOnTimeout用法一样，
+     * 但添加和取消定时任务都是O(1)，适合给大量请求各自挂一个超时。
+     */
+    static HashedWheelTimer timer = new HashedWheelTimer("examples-timer");
+    @Test
+    public void wheelTimerExample() {
+        CompletableFuture<String> delayed = CompletableFuture.completedFuture("message")
+                .thenApplyAsync(String::toUpperCase, timer.delayedExecutor(100, TimeUnit.MILLISECONDS));
+        assertEquals("MESSAGE", delayed.join());
+
+        CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> delayedUpperCase("message"));
+        CompletableFuture<String> fallback = timer.completeOnTimeout(slow, "fallback", 100, TimeUnit.MILLISECONDS);
+        assertEquals("fallback", fallback.join());
+
+        CompletableFuture<String> never = timer.orTimeout(new CompletableFuture<>(), 100, TimeUnit.MILLISECONDS);
+        try {
+            never.join();
+            fail("Should have timed out");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+    }
+
+    /**
+     * 按优先级执行异步阶段
+     *
+     * 线程池被批量任务占满时，CRITICAL优先级的阶段不用排在所有批量任务后面，
+     * 只需要等当前正在执行的任务结束。
+     */
+    @Test
+    public void priorityExecutorExample() {
+        PriorityExecutor priorityExecutor = new PriorityExecutor("priority-executor", 2);
+        List<CompletableFuture<List<Object>>> bulk = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            bulk.add(priorityExecutor.supplyAsync(() -> {
+                sleep(10);
+                return changeResultType(testList);
+            }, PriorityExecutor.Priority.BULK));
+        }
+
+        String result = CompletableFuture.completedFuture("message")
+                .thenApplyAsync(String::toUpperCase, priorityExecutor.priority(PriorityExecutor.Priority.CRITICAL))
+                .join();
+        assertEquals("MESSAGE", result);
+        assertTrue("Critical stage waited for the bulk work", bulk.stream().anyMatch(cf -> !cf.isDone()));
+
+        CompletableFuture.allOf(bulk.toArray(new CompletableFuture[0])).join();
+        System.out.println("CRITICAL: " + priorityExecutor.waitStats(PriorityExecutor.Priority.CRITICAL));
+        System.out.println("BULK: " + priorityExecutor.waitStats(PriorityExecutor.Priority.BULK));
+        priorityExecutor.shutdown();
+    }
+
+    /**
+     * 把单个的评分请求攒成批交给TensorFlow模型
+     *
+     * 每个请求拿到的都是输出张量里自己那一行；攒不满一批的请求在maxDelay到期时也会被处理。
+     */
+    @Test
+    public void microBatchingExample() throws InterruptedException {
+        List<Car> cars = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            cars.add(new Car(i, i % 10, "Model-" + i, 2000 + i % 20));
+        }
+
+        // maxDelay足够长，批次只会因为攒满而执行，所以Session.run的次数是确定的
+        try (CarRatingModel model = CarRatingModel.linear(100, 10, TimeUnit.SECONDS)) {
+            List<CompletableFuture<Float>> ratings = cars.stream()
+                    .map(model::rating)
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(ratings.toArray(new CompletableFuture[0])).join();
+
+            assertEquals(cars.size(), ratings.size());
+            assertEquals(10, model.batches());
+            for (int i = 0; i < cars.size(); i++) {
+                assertEquals(expectedRating(cars.get(i)), ratings.get(i).join(), 1e-4f);
+            }
+        }
+
+        // 攒不满的批次在maxDelay到期时执行
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        try (MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("partial-batcher", 1000, 50,
+                TimeUnit.MILLISECONDS, items -> {
+                    batchSizes.add(items.size());
+                    return items.stream().map(i -> i * 2).collect(Collectors.toList());
+                })) {
+            List<CompletableFuture<Integer>> doubled = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                doubled.add(batcher.submit(i));
+            }
+            for (int i = 0; i < doubled.size(); i++) {
+                assertEquals(Integer.valueOf(i * 2), doubled.get(i).join());
+            }
+            assertEquals(30, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        }
+
+        // close()等正在执行的批次做完，不会中断它
+        MicroBatcher<Integer, Integer> slow = new MicroBatcher<>("slow-batcher", 10, 1, TimeUnit.MILLISECONDS,
+                items -> {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException("batch interrupted", e);
+                    }
+                    return items;
+                });
+        List<CompletableFuture<Integer>> pending = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pending.add(slow.submit(i));
+        }
+        sleep(50);
+        slow.close();
+        for (int i = 0; i < pending.size(); i++) {
+            assertEquals(Integer.valueOf(i), pending.get(i).join());
+        }
+    }
+
+    // 和CarRatingModel.linear()的图相同：5 * sigmoid(features x weights + bias)
+    private static float expectedRating(Car car) {
+        float[] weights = {0.05f, 0.3f, -0.1f};
+        float[] features = CarRatingModel.features(car);
+        double logit = 0.2;
+        for (int i = 0; i < weights.length; i++) {
+            logit += features[i] * weights[i];
+        }
+        return (float) (5 / (1 + Math.exp(-logit)));
+    }
+
+    /**
+     * 跨进程分片评分
+     *
+     * 批次刚发出就杀掉一个工作进程，它手上的批次会被重新分派，所有车最终都有评分。
+     */
+    @Test
+    public void shardedRatingExample() throws IOException {
+        List<Car> cars = new ArrayList<>();
+        for (int i = 1; i <= 300; i++) {
+            cars.add(new Car(i, i % 10, "Model-" + i, 2000 + i % 20));
+        }
+
+        try (ShardedRatingCoordinator coordinator = ShardedRatingCoordinator.start(3)) {
+            CompletableFuture<List<Car>> rated = coordinator.rate(cars, 20);
+            coordinator.killWorker(0);
+
+            List<Car> result = rated.join();
+            assertEquals(cars.size(), result.size());
+            result.forEach(car -> assertTrue("Car " + car.id + " was not rated", car.rating > 0));
+            assertEquals(2, coordinator.aliveWorkers());
+
+            // 编码不了的车(model超过writeUTF的64KB上限)只让它所在的批次失败，工作进程不受影响
+            char[] hugeModel = new char[70 * 1024];
+            Arrays.fill(hugeModel, 'x');
+            Car bad = new Car(1000, 1, new String(hugeModel), 2018);
+            Car good = new Car(1001, 2, "Camry", 2018);
+            CompletableFuture<List<Car>> partly = coordinator.rate(Arrays.asList(bad, good), 1);
+            try {
+                partly.join();
+                fail("Should have failed to encode the huge model");
+            } catch (CompletionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+            assertTrue(good.rating > 0);
+            assertEquals(2, coordinator.aliveWorkers());
+        }
+    }
+
+    /**
+     * 异步批量输出
+     *
+     * 生产者只把一行放进环形缓冲区就返回，close()会把剩下的内容写完；DROP策略下缓冲区满了就丢弃并计数。
+     */
+    @Test
+    public void asyncOutputSinkExample() throws IOException, InterruptedException {
+        Path file = Files.createTempFile("async-sink", ".txt");
+        try {
+            try (AsyncOutputSink sink = new AsyncOutputSink("file-sink",
+                    FileChannel.open(file, StandardOpenOption.WRITE), true, 1024, AsyncOutputSink.OverflowPolicy.BLOCK)) {
+                for (int i = 0; i < 10000; i++) {
+                    assertTrue(sink.println("line " + i));
+                }
+            }
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            assertEquals(10000, lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                assertEquals("line " + i, lines.get(i));
+            }
+
+            AsyncOutputSink dropping = new AsyncOutputSink("dropping-sink",
+                    FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), true, 2,
+                    AsyncOutputSink.OverflowPolicy.DROP);
+            int accepted = 0;
+            for (int i = 0; i < 10000; i++) {
+                if (dropping.println("line " + i)) {
+                    accepted++;
+                }
+            }
+            dropping.close();
+            assertTrue("Nothing was dropped", dropping.dropped() > 0);
+            assertEquals(10000, accepted + dropping.dropped());
+            assertEquals(accepted, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 持久化在内存映射文件里的评分缓存
+     *
+     * 重新打开文件后直接命中；损坏的记录当作未命中，但不挡住探测链后面的记录；
+     * 过期记录先返回旧值并只触发一次刷新；加载失败的结果不会写进缓存。
+     */
+    @Test
+    public void mappedRatingCacheExample() throws IOException {
+        Path file = Files.createTempFile("ratings", ".cache");
+        try {
+            try (MappedRatingCache cache = MappedRatingCache.open(file, 16, 1, TimeUnit.HOURS)) {
+                assertTrue(cache.put(1, 4.5f));
+            }
+            try (MappedRatingCache cache = MappedRatingCache.open(file, 16, 1, TimeUnit.HOURS)) {
+                assertEquals(4.5f, cache.get(1), 0f);
+                assertNull(cache.get(2));
+            }
+
+            // 两个槽放两个key，总有一组key落在同一个起始槽上，需要越过损坏的记录继续探测
+            int[][] pairs = {{1, 2}, {1, 3}, {2, 3}};
+            for (int[] pair : pairs) {
+                Files.delete(file);
+                try (MappedRatingCache cache = MappedRatingCache.open(file, 2, 1, TimeUnit.HOURS)) {
+                    cache.put(pair[0], pair[0]);
+                    cache.put(pair[1], pair[1]);
+                }
+                for (int slot = 0; slot < 2; slot++) {
+                    int corrupted = corruptRating(file, slot);
+                    int intact = corrupted == pair[0] ? pair[1] : pair[0];
+                    try (MappedRatingCache cache = MappedRatingCache.open(file, 2, 1, TimeUnit.HOURS)) {
+                        assertNull(cache.get(corrupted));
+                        assertEquals(intact, cache.get(intact), 0f);
+                    }
+                    corruptRating(file, slot);
+                }
+            }
+            Files.delete(file);
+
+            try (MappedRatingCache cache = MappedRatingCache.open(file, 16, 1, TimeUnit.MILLISECONDS)) {
+                cache.put(7, 1f);
+                sleep(10);
+                AtomicInteger loads = new AtomicInteger();
+                CompletableFuture<Float> reload = new CompletableFuture<>();
+                IntFunction<CompletionStage<Float>> loader = key -> {
+                    loads.incrementAndGet();
+                    return reload;
+                };
+                assertEquals(1f, cache.get(7, loader).toCompletableFuture().join(), 0f);
+                assertEquals(1f, cache.get(7, loader).toCompletableFuture().join(), 0f);
+                assertEquals(1, loads.get());
+                reload.complete(2f);
+                assertEquals(2f, cache.get(7), 0f);
+
+                CompletableFuture<Float> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("rating service down"));
+                assertTrue(cache.get(9, key -> failed).toCompletableFuture().isCompletedExceptionally());
+                assertNull(cache.get(9));
+                assertTrue(cache.get(9, key -> {
+                    throw new IllegalStateException("rating service down");
+                }).toCompletableFuture().isCompletedExceptionally());
+                assertNull(cache.get(9));
+                assertTrue(cache.get(9, key -> CompletableFuture.completedFuture(null))
+                        .toCompletableFuture().isCompletedExceptionally());
+                assertNull(cache.get(9));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // 翻转记录里评分字段的一个字节(再调用一次就恢复)，返回这条记录的key
+    private static int corruptRating(Path file, int slot) throws IOException {
+        long offset = 16 + slot * 20L;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer record = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(record, offset);
+            record.put(4, (byte) (record.get(4) ^ 0xFF));
+            record.rewind();
+            channel.write(record, offset);
+            return record.getInt(0);
+        }
+    }
+
+    /**
+     * 流式加载车辆目录
+     *
+     * 表头、空行、CRLF和结尾没有换行的最后一行都能处理，同名的型号只分配一次；格式不对的行不会被悄悄丢掉。
+     */
+    @Test
+    public void catalogLoaderExample() throws IOException {
+        Path file = Files.createTempFile("catalog", ".csv");
+        try {
+            Files.write(file, ("\uFEFFid,manufacturerId,model,year\r\n"
+                    + "1,3,Škoda Octavia,2017\r\n"
+                    + "\r\n"
+                    + "2,7,Citroën C4,2014\r\n"
+                    + "3,3,Škoda Octavia,2008").getBytes(StandardCharsets.UTF_8));
+            List<Car> cars = loadCatalog(file);
+            assertEquals(3, cars.size());
+            assertEquals("Škoda Octavia", cars.get(0).model);
+            assertEquals("Citroën C4", cars.get(1).model);
+            assertEquals(2008, cars.get(2).year);
+            assertSame(cars.get(0).model, cars.get(2).model);
+
+            Files.write(file, "1,3,Fiesta,2017\n2,7,Camry,99999999999\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(loadError(file) instanceof NumberFormatException);
+
+            Files.write(file, "1,3,Fiesta,2017\n-1,7,Camry,2014\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(loadError(file) instanceof IllegalArgumentException);
+
+            Files.write(file, "1,3,Fiesta,2017\n 2,7,Camry,2014\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(loadError(file) instanceof IllegalArgumentException);
+
+            // 比4MB的读缓冲区还长的一行，有没有结尾的换行都一样报错
+            byte[] longLine = new byte[5 * 1024 * 1024];
+            Arrays.fill(longLine, (byte) 'x');
+            for (boolean newline : new boolean[]{true, false}) {
+                Files.write(file, "1,3,".getBytes(StandardCharsets.UTF_8));
+                Files.write(file, longLine, StandardOpenOption.APPEND);
+                Files.write(file, (newline ? ",2017\n" : ",2017").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.APPEND);
+                Throwable error = loadError(file);
+                assertTrue(String.valueOf(error), error instanceof UncheckedIOException);
+                assertTrue(error.getMessage().contains("Line longer than"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<Car> loadCatalog(Path file) {
+        List<Car> cars = new ArrayList<>();
+        new CarCatalogLoader(2, 4).load(file, executor, chunk -> {
+            synchronized (cars) {
+                cars.addAll(chunk);
+            }
+            return CompletableFuture.completedFuture(null);
+        }).join();
+        return cars;
+    }
+
+    private static Throwable loadError(Path file) {
+        try {
+            loadCatalog(file);
+        } catch (CompletionException ex) {
+            return ex.getCause();
+        }
+        fail("Should have failed to load " + file);
+        return null;
+    }
+
+    @Test
+    public void testRunAsyncAllOf(){
+        System.out.println("completableFuture test");
+        List<CompletableFuture<Void>> runs = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            int finalI = i;
+            CompletableFuture<Void> async = CompletableFuture.runAsync(() -> {
+                if (finalI == 1){
+                    int num = 1 / 0;
+                }
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                System.out.println("1111111111");
+            });
+
+            runs.add(async);
+        }
+
+        CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).join();
+    }
+
+    private static boolean isUpperCase(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isLowerCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String delayedUpperCase(String s) {
+        randomSleep();
+        return s.toUpperCase();
+    }
+
+    private static String delayedLowerCase(String s) {
+        randomSleep();
+        return s.toLowerCase();
+    }
+
+    private static void randomSleep() {
+        try {
+            int sleepTime = 5000;
+//            int sleepTime = random.nextInt(5000);
+            Thread.sleep(sleepTime);
+            // 在线程池的线程里打印，交给异步输出，避免各线程在System.out的锁上排队
+            AsyncOutputSink.stdout().println(Thread.currentThread().getName());
+            AsyncOutputSink.stdout().println("sleep " + sleepTime +" seconds");
+        } catch (InterruptedException e) {
+            // ...
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // ...
+        }
+    }
+
+    private static void sleepEnough() {
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            // ...
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.example.completablefuture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * 持久化在内存映射文件里的评分缓存，进程重启后直接映射文件即可命中，不需要反序列化。
+ * <p>
+ * 文件布局：16字节文件头(magic、version、capacity)之后是capacity个定长记录，
+ * 每个记录为 int key | float rating | long timestamp | int crc32，共20字节。
+ * 记录按key做开放寻址(线性探测)，所以文件本身就是索引。
+ * <p>
+ * 写入时先清掉CRC，再写数据字段，最后写CRC。进程在写一半时崩溃，该记录的CRC对不上，
+ * 读取时跳过它继续探测(这条记录本身是未命中)，不会读到错误的评分，也不会挡住探测链后面的记录；
+ * 之后写入新key时会复用这个槽。只有全为0的槽(从未写过)才是探测链的终点。
+ * <p>
+ * 写操作串行化，读操作不加锁；并发读到正在写的记录同样会因为CRC不匹配而跳过。
+ */
+public class MappedRatingCache implements Closeable {
+
+    private static final int MAGIC = 0x52415443; // "RATC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 20;
+    // 记录偏移用int计算，映射区也不能超过2GB
+    private static final int MAX_SLOTS = 1 << 26;
+
+    private static final int KEY_OFFSET = 0;
+    private static final int RATING_OFFSET = 4;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int CRC_OFFSET = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final long ttlMillis;
+    private final Map<Integer, CompletableFuture<Float>> refreshing = new ConcurrentHashMap<>();
+
+    private MappedRatingCache(FileChannel channel, MappedByteBuffer buffer, int capacity, long ttlMillis) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * 打开(或创建)缓存文件。capacity会被向上取整为2的幂；如果文件已存在，沿用文件里的容量。
+     * <p>
+     * 文件头最后才写magic，magic为0说明上次初始化没有完成(此时还不可能写过记录)，会被重新初始化。
+     */
+    public static MappedRatingCache open(Path file, int capacity, long ttl, TimeUnit unit) throws IOException {
+        if (capacity <= 0 || capacity > MAX_SLOTS) {
+            throw new IllegalArgumentException("capacity must be between 1 and " + MAX_SLOTS + ": " + capacity);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            int slots = Integer.highestOneBit(capacity - 1) << 1;
+            if (slots <= 0) {
+                slots = 1;
+            }
+            boolean existing = false;
+            if (channel.size() >= HEADER_SIZE) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                int magic = header.getInt(0);
+                if (magic != 0) {
+                    if (magic != MAGIC || header.getInt(4) != VERSION) {
+                        throw new IOException("Not a rating cache file: " + file);
+                    }
+                    int stored = header.getInt(8);
+                    if (stored <= 0 || stored > MAX_SLOTS || Integer.bitCount(stored) != 1
+                            || channel.size() < HEADER_SIZE + (long) stored * RECORD_SIZE) {
+                        throw new IOException("Corrupt rating cache header (slots=" + stored + "): " + file);
+                    }
+                    slots = stored;
+                    existing = true;
+                }
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) slots * RECORD_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (!existing) {
+                buffer.putInt(8, slots);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(0, MAGIC);
+                buffer.force();
+            }
+            return new MappedRatingCache(channel, buffer, slots, unit.toMillis(ttl));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 读取缓存的评分，未命中返回null(不区分是否过期)
+     */
+    public Float get(int key) {
+        int slot = find(key);
+        return slot < 0 ? null : buffer.getFloat(offset(slot) + RATING_OFFSET);
+    }
+
+    /**
+     * 先查缓存：新鲜的记录直接返回；过期的记录先返回旧值，同时在后台用loader刷新；
+     * 未命中时调用loader并把结果写回缓存。
+     */
+    public CompletionStage<Float> get(int key, IntFunction<? extends CompletionStage<Float>> loader) {
+        int slot = find(key);
+        if (slot < 0) {
+            return refresh(key, loader);
+        }
+        int offset = offset(slot);
+        float rating = buffer.getFloat(offset + RATING_OFFSET);
+        if (System.currentTimeMillis() - buffer.getLong(offset + TIMESTAMP_OFFSET) > ttlMillis) {
+            refresh(key, loader);
+        }
+        return CompletableFuture.completedFuture(rating);
+    }
+
+    private CompletableFuture<Float> refresh(int key, IntFunction<? extends CompletionStage<Float>> loader) {
+        CompletableFuture<Float> created = new CompletableFuture<>();
+        CompletableFuture<Float> inFlight = refreshing.putIfAbsent(key, created);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        CompletionStage<Float> loading;
+        try {
+            loading = loader.apply(key);
+        } catch (Throwable th) {
+            refreshing.remove(key, created);
+            created.completeExceptionally(th);
+            return created;
+        }
+        loading.whenComplete((rating, th) -> {
+            refreshing.remove(key, created);
+            if (th != null) {
+                created.completeExceptionally(th);
+                return;
+            }
+            try {
+                put(key, rating);
+            } catch (Throwable e) {
+                // 包括loader返回null时拆箱的NullPointerException
+                created.completeExceptionally(e);
+                return;
+            }
+            created.complete(rating);
+        });
+        return created;
+    }
+
+    /**
+     * 写入或覆盖一条记录。表满时不写入并返回false。
+     */
+    public synchronized boolean put(int key, float rating) {
+        // 已有这个key时覆盖它，否则写进探测链上第一个损坏的槽或者链尾的空槽
+        int slot = find(key);
+        if (slot < 0) {
+            int start = spread(key) & mask;
+            for (int i = 0; i < capacity && slot < 0; i++) {
+                int candidate = (start + i) & mask;
+                if (!isValid(offset(candidate))) {
+                    slot = candidate;
+                }
+            }
+            if (slot < 0) {
+                return false;
+            }
+        }
+        int offset = offset(slot);
+        long timestamp = System.currentTimeMillis();
+        buffer.putInt(offset + CRC_OFFSET, 0);
+        buffer.putInt(offset + KEY_OFFSET, key);
+        buffer.putFloat(offset + RATING_OFFSET, rating);
+        buffer.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+        buffer.putInt(offset + CRC_OFFSET, checksum(key, rating, timestamp));
+        return true;
+    }
+
+    /**
+     * 把修改刷到磁盘
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private int find(int key) {
+        int start = spread(key) & mask;
+        for (int i = 0; i < capacity; i++) {
+            int slot = (start + i) & mask;
+            int offset = offset(slot);
+            if (isEmpty(offset)) {
+                return -1;
+            }
+            if (isValid(offset) && buffer.getInt(offset + KEY_OFFSET) == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 从未写过的槽全为0；有效记录的时间戳不为0，写了一半的记录至少有一个字段不为0
+     */
+    private boolean isEmpty(int offset) {
+        return buffer.getInt(offset + CRC_OFFSET) == 0
+                && buffer.getInt(offset + KEY_OFFSET) == 0
+                && buffer.getInt(offset + RATING_OFFSET) == 0
+                && buffer.getLong(offset + TIMESTAMP_OFFSET) == 0;
+    }
+
+    private boolean isValid(int offset) {
+        int key = buffer.getInt(offset + KEY_OFFSET);
+        float rating = buffer.getFloat(offset + RATING_OFFSET);
+        long timestamp = buffer.getLong(offset + TIMESTAMP_OFFSET);
+        return buffer.getInt(offset + CRC_OFFSET) == checksum(key, rating, timestamp);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static int spread(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int checksum(int key, float rating, long timestamp) {
+        CRC32 crc = new CRC32();
+        long bits = ((long) key << 32) | (Float.floatToRawIntBits(rating) & 0xFFFFFFFFL);
+        for (int i = 0; i < 8; i++) {
+            crc.update((int) (bits >>> (i * 8)));
+        }
+        for (int i = 0; i < 8; i++) {
+            crc.update((int) (timestamp >>> (i * 8)));
+        }
+        return (int) crc.getValue();
+    }
+}
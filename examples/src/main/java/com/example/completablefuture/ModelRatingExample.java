@@ -0,0 +1,39 @@
+package com.example.completablefuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 用本地模型给车辆评分：每辆车单独发起一个rating请求，由CarRatingModel攒批后统一推理。
+ */
+public class ModelRatingExample {
+
+    public static void main(String[] args) throws InterruptedException {
+        long start = System.currentTimeMillis();
+
+        List<Car> cars = new ArrayList<>(RealLifeCompletableFutureExample.cars().toCompletableFuture().join());
+        for (int i = 4; i <= 10000; i++) {
+            cars.add(new Car(i, i % 10, "Model-" + i, 2000 + i % 20));
+        }
+
+        try (CarRatingModel model = CarRatingModel.linear(256, 5, TimeUnit.MILLISECONDS)) {
+            List<CompletableFuture<Car>> rated = cars.stream()
+                    .map(car -> model.rating(car).thenApply(r -> {
+                        car.setRating(r);
+                        return car;
+                    })).collect(Collectors.toList());
+
+            CompletableFuture.allOf(rated.toArray(new CompletableFuture[0])).join();
+
+            cars.subList(0, 3).forEach(System.out::println);
+            System.out.println("Rated " + cars.size() + " cars in " + model.batches() + " batches");
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("Took " + (end - start) + " ms.");
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.completablefuture;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class RealLifeCompletableFutureExample {
+
+    public static void main(String[] args) throws IOException {
+        long start = System.currentTimeMillis();
+
+        // 评分持久化在映射文件里，重启后第二次运行直接命中，过期的记录在后台刷新
+        Path cacheFile = Paths.get(System.getProperty("java.io.tmpdir"), "car-ratings.cache");
+        try (MappedRatingCache ratingCache = MappedRatingCache.open(cacheFile, 1024, 1, TimeUnit.HOURS)) {
+            // 按完成顺序消费：最快的评分一返回就打印，不用等最慢的那个
+            CompletionChannel<Car> ratedCars = cars().thenApply(cars -> CompletionChannel.<Car>of(cars.stream()
+                    // 缓存只写入真正取到的评分，失败时的-1不落盘
+                    .map(car -> ratingCache.get(car.manufacturerId, RealLifeCompletableFutureExample::fetchRating)
+                            .exceptionally(th -> -1f)
+                            .thenApplyAsync(r -> {
+                                car.setRating(r);
+                                return car;
+                            }).toCompletableFuture()).collect(Collectors.toList()))).toCompletableFuture().join();
+
+            for (Car car : ratedCars) {
+                AsyncOutputSink.stdout().println(car + " (after " + (System.currentTimeMillis() - start) + " ms)");
+            }
+        }
+
+        long end = System.currentTimeMillis();
+
+        AsyncOutputSink.stdout().println("Took " + (end - start) + " ms.");
+    }
+
+    // 按制造商查询评分的远程服务(用5秒延迟模拟)，ShardWorker也用它；用TensorFlow模型按车辆特征批量评分见ModelRatingExample
+    static CompletionStage<Float> rating(int manufacturer) {
+        return fetchRating(manufacturer).exceptionally(th -> -1f);
+    }
+
+    static CompletionStage<Float> fetchRating(int manufacturer) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                simulateDelay();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            switch (manufacturer) {
+            case 2:
+                return 4f;
+            case 3:
+                return 4.1f;
+            case 7:
+                return 4.2f;
+            default:
+                return 5f;
+            }
+        });
+    }
+
+    static CompletionStage<List<Car>> cars() {
+        List<Car> carList = new ArrayList<>();
+        carList.add(new Car(1, 3, "Fiesta", 2017));
+        carList.add(new Car(2, 7, "Camry", 2014));
+        carList.add(new Car(3, 2, "M2", 2008));
+        return CompletableFuture.supplyAsync(() -> carList);
+    }
+
+    private static void simulateDelay() throws InterruptedException {
+        Thread.sleep(5000);
+    }
+
+}
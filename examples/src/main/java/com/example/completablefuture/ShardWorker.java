@@ -0,0 +1,84 @@
+package com.example.completablefuture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分片评分的工作进程，由ShardedRatingCoordinator启动。
+ * <p>
+ * 在回环地址上监听，把端口号以"PORT n"打印到stdout，然后接受协调进程的连接。
+ * 收到的每个批次立即开始评分，完成后回写RESULT，多个批次可以同时在处理中。
+ * 同一个制造商的车总是被分到同一个工作进程，所以每个制造商的评分只需要查一次。
+ */
+public class ShardWorker {
+
+    private final Map<Integer, CompletionStage<Float>> ratings = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        try (ServerSocket server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            System.out.println("PORT " + server.getLocalPort());
+            System.out.flush();
+            try (Socket socket = server.accept()) {
+                socket.setTcpNoDelay(true);
+                new ShardWorker().serve(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        try {
+            for (;;) {
+                byte type = in.readByte();
+                if (type == CarFrames.SHUTDOWN) {
+                    return;
+                }
+                if (type != CarFrames.BATCH) {
+                    throw new IOException("Unexpected frame type " + type);
+                }
+                int batchId = in.readInt();
+                List<Car> cars = CarFrames.readCars(in);
+                rate(cars).whenComplete((v, th) -> reply(socket, out, batchId, cars));
+            }
+        } catch (EOFException e) {
+            // 协调进程已经断开
+        }
+    }
+
+    private CompletableFuture<Void> rate(List<Car> cars) {
+        return CompletableFuture.allOf(cars.stream()
+                .map(car -> ratings.computeIfAbsent(car.manufacturerId, RealLifeCompletableFutureExample::rating)
+                        .thenAccept(car::setRating)
+                        .toCompletableFuture())
+                .toArray(CompletableFuture[]::new));
+    }
+
+    private static void reply(Socket socket, DataOutputStream out, int batchId, List<Car> cars) {
+        synchronized (out) {
+            try {
+                CarFrames.writeResult(out, batchId, cars);
+                out.flush();
+            } catch (IOException e) {
+                // 收到SHUTDOWN后连接已经关闭，协调进程不再需要这些结果
+                if (!socket.isClosed()) {
+                    e.printStackTrace();
+                }
+                System.exit(1);
+            }
+        }
+    }
+}
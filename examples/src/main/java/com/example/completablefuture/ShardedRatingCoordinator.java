@@ -0,0 +1,307 @@
+package com.example.completablefuture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在本机启动N个ShardWorker进程，按manufacturerId把车辆分片给它们评分。
+ * <p>
+ * 协调进程和工作进程之间走回环地址上的TCP连接，使用CarFrames定义的二进制帧。
+ * 所有批次一次性发出，不等前一批的结果(流水线)，每个连接有一个读线程按batchId完成对应的future。
+ * 某个工作进程失败(连接断开、进程退出、回复格式错误，或者某个批次超过replyTimeout没有回复)时，
+ * 它手上未完成的批次会重新分派给下一个存活的工作进程。close()之后仍未完成的批次以异常完成。
+ */
+public class ShardedRatingCoordinator implements AutoCloseable {
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final AtomicInteger batchIds = new AtomicInteger();
+    private final HashedWheelTimer timer = new HashedWheelTimer("shard-reply-timer", 100, TimeUnit.MILLISECONDS, 512);
+    private final long replyTimeoutNanos;
+
+    private ShardedRatingCoordinator(int workerCount, long replyTimeout, TimeUnit unit) throws IOException {
+        this.replyTimeoutNanos = unit.toNanos(replyTimeout);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classpath = System.getProperty("java.class.path");
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                Process process = new ProcessBuilder(java, "-cp", classpath, ShardWorker.class.getName())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                try {
+                    workers.add(new Worker(i, process));
+                } catch (IOException | RuntimeException e) {
+                    process.destroyForcibly();
+                    throw e;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            workers.forEach(Worker::destroy);
+            stopTimer();
+            throw e;
+        }
+    }
+
+    /**
+     * 启动workerCount个工作进程，使用和当前进程相同的java和classpath，回复超时30秒
+     */
+    public static ShardedRatingCoordinator start(int workerCount) throws IOException {
+        return start(workerCount, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param replyTimeout 一个批次发出后等待结果的最长时间，超时就认为工作进程已经卡死
+     */
+    public static ShardedRatingCoordinator start(int workerCount, long replyTimeout, TimeUnit unit) throws IOException {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be positive: " + workerCount);
+        }
+        return new ShardedRatingCoordinator(workerCount, replyTimeout, unit);
+    }
+
+    /**
+     * 给所有车辆评分，返回的future在全部完成后以原列表完成
+     */
+    public CompletableFuture<List<Car>> rate(List<Car> cars, int batchSize) {
+        List<List<Car>> shards = new ArrayList<>(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (Car car : cars) {
+            shards.get(Math.floorMod(car.manufacturerId, workers.size())).add(car);
+        }
+
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<Car> shardCars = shards.get(shard);
+            for (int from = 0; from < shardCars.size(); from += batchSize) {
+                int id = batchIds.incrementAndGet();
+                List<Car> batchCars = shardCars.subList(from, Math.min(from + batchSize, shardCars.size()));
+                byte[] frame;
+                try {
+                    frame = CarFrames.encodeBatch(id, batchCars);
+                } catch (IOException | RuntimeException e) {
+                    // 数据本身的问题(例如model超过64KB)只让这个批次失败，不算工作进程失败
+                    batches.add(CompletableFuture.failedFuture(e));
+                    continue;
+                }
+                Batch batch = new Batch(id, shard, batchCars, frame);
+                dispatch(batch);
+                batches.add(batch.done);
+            }
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).thenApply(v -> cars);
+    }
+
+    /**
+     * 强制结束一个工作进程，用来演示失败后的重新分派
+     */
+    public void killWorker(int index) {
+        workers.get(index).process.destroyForcibly();
+    }
+
+    public int aliveWorkers() {
+        return (int) workers.stream().filter(worker -> worker.alive.get()).count();
+    }
+
+    private void dispatch(Batch batch) {
+        for (int i = 0; i < workers.size(); i++) {
+            Worker worker = workers.get((batch.shard + i) % workers.size());
+            if (worker.alive.get() && worker.send(batch)) {
+                return;
+            }
+        }
+        batch.done.completeExceptionally(new IllegalStateException("No live workers for batch " + batch.id));
+    }
+
+    @Override
+    public void close() {
+        for (Worker worker : workers) {
+            worker.shutdown();
+        }
+        stopTimer();
+    }
+
+    private void stopTimer() {
+        try {
+            timer.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Batch {
+        final int id;
+        final int shard;
+        final List<Car> cars;
+        // 编码好的BATCH帧，重新分派时直接重发
+        final byte[] frame;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Batch(int id, int shard, List<Car> cars, byte[] frame) {
+            this.id = id;
+            this.shard = shard;
+            this.cars = cars;
+            this.frame = frame;
+        }
+    }
+
+    private final class Worker {
+        final int index;
+        final Process process;
+        final Socket socket;
+        final DataOutputStream out;
+        final DataInputStream in;
+        final Map<Integer, Batch> inFlight = new ConcurrentHashMap<>();
+        final AtomicBoolean alive = new AtomicBoolean(true);
+
+        Worker(int index, Process process) throws IOException {
+            this.index = index;
+            this.process = process;
+            BufferedReader stdout = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line = stdout.readLine();
+            if (line == null || !line.startsWith("PORT ")) {
+                throw new IOException("Worker " + index + " did not report its port: " + line);
+            }
+            this.socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(line.substring(5)));
+            socket.setTcpNoDelay(true);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            Thread reader = new Thread(this::read, "shard-worker-" + index + "-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean send(Batch batch) {
+            inFlight.put(batch.id, batch);
+            // 和shutdown()竞争：shutdown()先清除alive再清空inFlight，能移除说明它没有看到这个批次
+            if (!alive.get() && inFlight.remove(batch.id) != null) {
+                return false;
+            }
+            try {
+                synchronized (out) {
+                    out.write(batch.frame);
+                    out.flush();
+                }
+                HashedWheelTimer.Timeout timeout = timer.newTimeout(() -> {
+                    if (inFlight.get(batch.id) == batch) {
+                        System.err.println("Worker " + index + " did not answer batch " + batch.id + " in time");
+                        fail();
+                    }
+                }, replyTimeoutNanos, TimeUnit.NANOSECONDS);
+                batch.done.whenComplete((v, th) -> timeout.cancel());
+                return true;
+            } catch (IllegalStateException e) {
+                // 定时器已经停止，协调器正在关闭
+                return true;
+            } catch (IOException e) {
+                // fail()可能已经把这个批次取走并重新分派了
+                boolean ours = inFlight.remove(batch.id) != null;
+                fail();
+                return !ours;
+            }
+        }
+
+        private void read() {
+            try {
+                for (;;) {
+                    byte type = in.readByte();
+                    if (type != CarFrames.RESULT) {
+                        throw new IOException("Unexpected frame type " + type);
+                    }
+                    int batchId = in.readInt();
+                    float[] ratings = CarFrames.readRatings(in);
+                    Batch batch = inFlight.get(batchId);
+                    if (batch == null) {
+                        continue;
+                    }
+                    if (ratings.length != batch.cars.size()) {
+                        // 批次留在inFlight里，由fail()重新分派
+                        throw new IOException("Worker " + index + " returned " + ratings.length
+                                + " ratings for batch " + batchId + " of " + batch.cars.size() + " cars");
+                    }
+                    if (!inFlight.remove(batchId, batch)) {
+                        continue;
+                    }
+                    for (int i = 0; i < ratings.length; i++) {
+                        batch.cars.get(i).setRating(ratings[i]);
+                    }
+                    batch.done.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                fail();
+            }
+        }
+
+        /**
+         * 标记为失败并把未完成的批次交给其他工作进程
+         */
+        private void fail() {
+            if (!alive.compareAndSet(true, false)) {
+                return;
+            }
+            destroy();
+            for (Integer id : new ArrayList<>(inFlight.keySet())) {
+                Batch batch = inFlight.remove(id);
+                if (batch != null) {
+                    dispatch(batch);
+                }
+            }
+        }
+
+        void shutdown() {
+            if (alive.compareAndSet(true, false)) {
+                synchronized (out) {
+                    try {
+                        out.writeByte(CarFrames.SHUTDOWN);
+                        out.flush();
+                    } catch (IOException e) {
+                        // 进程已经退出
+                    }
+                }
+                try {
+                    if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    process.destroyForcibly();
+                }
+            }
+            destroy();
+            for (Integer id : new ArrayList<>(inFlight.keySet())) {
+                Batch batch = inFlight.remove(id);
+                if (batch != null) {
+                    batch.done.completeExceptionally(
+                            new IllegalStateException("Coordinator closed before batch " + id + " was rated"));
+                }
+            }
+        }
+
+        void destroy() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            process.destroyForcibly();
+        }
+    }
+}
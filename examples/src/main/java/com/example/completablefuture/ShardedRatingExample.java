@@ -0,0 +1,36 @@
+package com.example.completablefuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在本机用3个工作进程分片评分，中途杀掉一个工作进程，它的分片会被重新分派给其他进程。
+ */
+public class ShardedRatingExample {
+
+    public static void main(String[] args) throws Exception {
+        long start = System.currentTimeMillis();
+
+        List<Car> cars = new ArrayList<>();
+        for (int i = 1; i <= 3000; i++) {
+            cars.add(new Car(i, i % 10, "Model-" + i, 2000 + i % 20));
+        }
+
+        try (ShardedRatingCoordinator coordinator = ShardedRatingCoordinator.start(3)) {
+            CompletableFuture<List<Car>> rated = coordinator.rate(cars, 100);
+
+            CompletableFuture.runAsync(() -> coordinator.killWorker(0),
+                    CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS));
+
+            List<Car> result = rated.join();
+            result.subList(0, 3).forEach(System.out::println);
+            System.out.println("Rated " + result.size() + " cars, " + coordinator.aliveWorkers() + " workers still alive");
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("Took " + (end - start) + " ms.");
+    }
+}
@@ -34,13 +34,17 @@ public class okHttpClientTest {
 
     public static void main(String[] args) throws InterruptedException, ExecutionException, TimeoutException {
 
-        ExecutorService executorService = Executors.newFixedThreadPool(50);
+        // 批量请求以BULK优先级提交，同一个线程池里延迟敏感的任务可以插到它们前面
+        PriorityExecutor executorService = new PriorityExecutor("okhttp-executor", 50);
 
 //        requestOkHttp();
 
         for (int i = 0; i < 10000; i++) {
-            executorService.execute(okHttpClientTest::requestOkHttp);
+            executorService.execute(okHttpClientTest::requestOkHttp, PriorityExecutor.Priority.BULK);
         }
+        // 工作线程是守护线程，等请求都执行完再退出
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.MINUTES);
 
 
     }
@@ -50,7 +54,7 @@ public class okHttpClientTest {
             Request.Builder builder = new Request.Builder();
             Response response = client.newCall(builder.url("http://localhost:8082/tomcat/timeout").build()).execute();
             assert response.body() != null;
-            System.out.println(response.body().string());
+            AsyncOutputSink.stdout().println(response.body().string());
         } catch (IOException e) {
             e.printStackTrace();
         }